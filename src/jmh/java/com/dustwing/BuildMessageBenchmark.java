@@ -0,0 +1,116 @@
+package com.dustwing;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a message and writing it out as it would go on the wire, across body, attachment and inline
+ * image sizes. Building alone is cheap since the content is only encoded when written.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BuildMessageBenchmark {
+
+    @Param({"1", "64"})
+    private int bodyKb;
+
+    @Param({"0", "1024"})
+    private int attachmentKb;
+
+    @Param({"0", "256"})
+    private int imageKb;
+
+    private EmailSender sender;
+
+    private Session session;
+
+    private EmailNotification notification;
+
+    private File image;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+
+        session = Session.getInstance(new Properties());
+        sender = new EmailSender(session);
+
+        final Random random = new Random(42);
+
+        final StringBuilder body = new StringBuilder("<html><body>");
+        while (body.length() < bodyKb * 1024) {
+            body.append("<p>Lorem ipsum dolor sit amet ").append(random.nextInt()).append("</p>");
+        }
+        body.append("<img src=\"cid:logo\"/></body></html>");
+
+        final EmailNotification.EmailNotificationBuilder builder = new EmailNotification.EmailNotificationBuilder()
+                .from("from@example.com")
+                .subject("BuildMessageBenchmark")
+                .body(body.toString())
+                .html(true)
+                .to(List.of("to@example.com"));
+
+        if (attachmentKb > 0) {
+            final byte[] content = new byte[attachmentKb * 1024];
+            random.nextBytes(content);
+            builder.attachments(List.of(new EmailAttachment("report.bin", content, "application/octet-stream")));
+        }
+
+        if (imageKb > 0) {
+            final byte[] content = new byte[imageKb * 1024];
+            random.nextBytes(content);
+            image = Files.createTempFile("benchmark", ".png").toFile();
+            Files.write(image.toPath(), content);
+            builder.images(Map.of("logo", image));
+        }
+
+        notification = builder.build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (image != null) {
+            image.delete();
+        }
+    }
+
+    @Benchmark
+    public MimeMessage build() throws MessagingException, IOException {
+        return sender.buildMessage(notification, session);
+    }
+
+    @Benchmark
+    public MimeMessage buildAndWrite() throws MessagingException, IOException {
+        final MimeMessage message = sender.buildMessage(notification, session);
+        message.saveChanges();
+        message.writeTo(OutputStream.nullOutputStream());
+        return message;
+    }
+}
@@ -0,0 +1,99 @@
+package com.dustwing;
+
+import com.dustwing.queue.EmailBlockingQueue;
+import com.dustwing.result.Success;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enqueue to dispatch throughput with a sender that does nothing, so only the queue is measured.
+ * Each invocation adds {@value #BATCH} notifications and waits until all of them were dispatched.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmailBlockingQueueBenchmark {
+
+    private static final int BATCH = 1_000;
+
+    @Param({"1", "4"})
+    private int workers;
+
+    @Param({"1", "32"})
+    private int batchSize;
+
+    @Param({"true", "false"})
+    private boolean validateAddresses;
+
+    private EmailBlockingQueue queue;
+
+    private EmailNotification notification;
+
+    private volatile CountDownLatch dispatched;
+
+    private IEmailSender<EmailNotification> sender;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        queue = EmailBlockingQueue.builder()
+                .workers(workers)
+                .batchSize(batchSize)
+                .validateAddresses(validateAddresses)
+                .build();
+        queue.start();
+
+        notification = new EmailNotification.EmailNotificationBuilder()
+                .from("from@example.com")
+                .subject("EmailBlockingQueueBenchmark")
+                .body("EmailBlockingQueueBenchmark")
+                .html(true)
+                .to(List.of("to@example.com"))
+                .build();
+
+        sender = email -> {
+            dispatched.countDown();
+            return new Success<>(email);
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        queue.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void enqueueToDispatch() throws InterruptedException {
+
+        final CountDownLatch latch = new CountDownLatch(BATCH);
+        dispatched = latch;
+
+        for (int i = 0; i < BATCH; i++) {
+            queue.add(sender, notification);
+        }
+
+        if (!latch.await(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Queue did not dispatch " + latch.getCount() + " notifications");
+        }
+    }
+}
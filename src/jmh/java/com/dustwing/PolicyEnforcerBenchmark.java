@@ -0,0 +1,96 @@
+package com.dustwing;
+
+import com.dustwing.policy.PolicyEnforcer;
+import com.dustwing.policy.retry.RetryPolicy;
+import com.dustwing.result.Failure;
+import com.dustwing.result.Result;
+import com.dustwing.result.Success;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Overhead of {@link PolicyEnforcer#run} around a call that does nothing: straight success, one failure
+ * then success on the retry, and every retry failing. Retries have no delay so only the policy
+ * machinery is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PolicyEnforcerBenchmark {
+
+    private static final EmailException FAILURE = new EmailException("Benchmark failure");
+
+    private PolicyEnforcer<EmailNotification> enforcer;
+
+    private EmailNotification notification;
+
+    private Function<EmailNotification, Result<EmailNotification>> pass;
+
+    private Function<EmailNotification, Result<EmailNotification>> failOnce;
+
+    private Function<EmailNotification, Result<EmailNotification>> fail;
+
+    private boolean failNext;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        final RetryPolicy retryPolicy = RetryPolicy.builder()
+                .withDelay(TimeUnit.NANOSECONDS, 0)
+                .withMaxRetries(3)
+                .handle(List.of(EmailException.class))
+                .build();
+
+        enforcer = PolicyEnforcer.<EmailNotification, Boolean>builder()
+                .retry(retryPolicy)
+                .build();
+
+        notification = new EmailNotification.EmailNotificationBuilder()
+                .from("from@example.com")
+                .subject("PolicyEnforcerBenchmark")
+                .body("PolicyEnforcerBenchmark")
+                .html(true)
+                .to(List.of("to@example.com"))
+                .build();
+
+        pass = Success::new;
+
+        failOnce = email -> {
+            failNext = !failNext;
+            return failNext ? new Failure<>(email, FAILURE) : new Success<>(email);
+        };
+
+        fail = email -> new Failure<>(email, FAILURE);
+    }
+
+    @Benchmark
+    public Result<EmailNotification> success() {
+        return enforcer.run(pass, notification);
+    }
+
+    @Benchmark
+    public Result<EmailNotification> retryThenSuccess() {
+        return enforcer.run(failOnce, notification);
+    }
+
+    @Benchmark
+    public Result<EmailNotification> retriesExhausted() {
+        return enforcer.run(fail, notification);
+    }
+}
@@ -0,0 +1,79 @@
+package com.dustwing;
+
+import com.dustwing.policy.validate.SpamPolicy;
+import com.dustwing.result.Result;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SpamPolicy#validate} from several threads sharing one policy. With one subject every thread
+ * contends on the same entry, with many they mostly touch different ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class SpamPolicyBenchmark {
+
+    @Param({"1", "1024"})
+    private int subjects;
+
+    private SpamPolicy spamPolicy;
+
+    private EmailNotification[] notifications;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        //short enough that subjects keep expiring and the sweep runs
+        spamPolicy = new SpamPolicy(Duration.ofMillis(1));
+
+        notifications = new EmailNotification[subjects];
+        for (int i = 0; i < subjects; i++) {
+            notifications[i] = new EmailNotification.EmailNotificationBuilder()
+                    .from("from@example.com")
+                    .subject("SpamPolicyBenchmark" + i)
+                    .body("SpamPolicyBenchmark")
+                    .html(true)
+                    .to(List.of("to@example.com"))
+                    .build();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int next;
+
+        //threads start apart instead of walking the subjects in step
+        @Setup(Level.Trial)
+        public void setUp() {
+            next = ThreadLocalRandom.current().nextInt(1 << 20);
+        }
+    }
+
+    @Benchmark
+    public Result<EmailNotification> validate(Cursor cursor) {
+        final EmailNotification notification = notifications[cursor.next++ % notifications.length];
+        return spamPolicy.validate(notification);
+    }
+}
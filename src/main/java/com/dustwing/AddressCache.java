@@ -0,0 +1,95 @@
+package com.dustwing;
+
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.InternetAddress;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parsed recipient addresses, can be shared in multiple IEmailSender
+ * <p>
+ * {@link #parse} is as lenient as {@code new InternetAddress(address)}, so addresses without a domain
+ * are accepted as they always were when sending. {@link #validate} adds the strict RFC 822 checks.
+ * Past {@code maxEntries} the least recently used entry makes room for the new one. The cached
+ * {@link InternetAddress} objects are shared and must not be modified.
+ */
+public final class AddressCache {
+
+    private static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    private static final AddressCache SHARED = new AddressCache(DEFAULT_MAX_ENTRIES);
+
+    //access ordered, guarded by this
+    private final Map<String, InternetAddress> addresses;
+
+    public AddressCache(int maxEntries) {
+
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+
+        this.addresses = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, InternetAddress> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Process wide cache used by EmailSender.
+     */
+    public static AddressCache shared() {
+        return SHARED;
+    }
+
+    public InternetAddress parse(String address) throws AddressException {
+
+        if (address == null) {
+            throw new AddressException("Address is null");
+        }
+
+        synchronized (this) {
+            final InternetAddress cached = addresses.get(address);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        final InternetAddress parsed = new InternetAddress(address);
+
+        synchronized (this) {
+            addresses.put(address, parsed);
+        }
+
+        return parsed;
+    }
+
+    /**
+     * Checks the sender and every recipient strictly, a missing domain included. The first invalid
+     * address fails.
+     */
+    public void validate(EmailNotification notification) throws AddressException {
+        parse(notification.from()).validate();
+        parseAll(notification.toRecipients());
+        parseAll(notification.ccRecipients());
+        parseAll(notification.bccRecipients());
+    }
+
+    public synchronized int size() {
+        return addresses.size();
+    }
+
+    private void parseAll(Collection<String> recipients) throws AddressException {
+
+        if (recipients == null) {
+            return;
+        }
+
+        for (String recipient : recipients) {
+            parse(recipient).validate();
+        }
+    }
+}
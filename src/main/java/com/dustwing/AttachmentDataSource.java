@@ -0,0 +1,39 @@
+package com.dustwing;
+
+import jakarta.activation.DataSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Lazy {@link DataSource} over an {@link AttachmentSource}, nothing is read until the message is written.
+ */
+public final class AttachmentDataSource implements DataSource {
+
+    private final EmailAttachment attachment;
+
+    public AttachmentDataSource(EmailAttachment attachment) {
+        this.attachment = attachment;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return attachment.source().openStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("Attachment sources are read only");
+    }
+
+    @Override
+    public String getContentType() {
+        return attachment.mimeType() != null ? attachment.mimeType() : "application/octet-stream";
+    }
+
+    @Override
+    public String getName() {
+        return attachment.fileName();
+    }
+}
@@ -0,0 +1,71 @@
+package com.dustwing;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Where the content of an {@link EmailAttachment} comes from.
+ * <p>
+ * The stream is opened when the message is written to the connection and read once, so file and
+ * stream backed attachments are never held in memory. Opened again for every send.
+ */
+@FunctionalInterface
+public interface AttachmentSource {
+
+    InputStream openStream() throws IOException;
+
+    /**
+     * @return size in bytes, -1 when unknown
+     */
+    default long size() {
+        return -1;
+    }
+
+    static AttachmentSource ofBytes(byte[] bytes) {
+        return new BytesSource(bytes);
+    }
+
+    static AttachmentSource ofPath(Path path) {
+        return new PathSource(path);
+    }
+
+    /**
+     * @param supplier called on every send, must return a new stream each time
+     */
+    static AttachmentSource ofStream(AttachmentSource supplier) {
+        return supplier;
+    }
+
+    record BytesSource(byte[] bytes) implements AttachmentSource {
+
+        @Override
+        public InputStream openStream() {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public long size() {
+            return bytes.length;
+        }
+    }
+
+    record PathSource(Path path) implements AttachmentSource {
+
+        @Override
+        public InputStream openStream() throws IOException {
+            return Files.newInputStream(path);
+        }
+
+        @Override
+        public long size() {
+            try {
+                return Files.size(path);
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+    }
+}
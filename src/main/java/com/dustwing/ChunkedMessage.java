@@ -0,0 +1,102 @@
+package com.dustwing;
+
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.util.SharedByteArrayInputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * A message sent to its recipients in several chunks.
+ * <p>
+ * When every attachment is already in memory the message is encoded once and each chunk sends the same
+ * bytes. Attachments read from a file or a stream are never loaded for that: every chunk builds a message
+ * of its own with the same Message-ID, so each chunk reads and encodes the attachment sources again.
+ * Chunks can be sent from many threads either way, no message instance is shared between them.
+ */
+final class ChunkedMessage {
+
+    private static final String[] NOT_WRITTEN = {"Bcc", "Content-Length"};
+
+    //kept from the first message when every chunk builds its own
+    private static final String[] SHARED_HEADERS = {"Message-ID", "Date"};
+
+    private final MimeMessage message;
+
+    private final Builder builder;
+
+    //null when every chunk builds its own message
+    private final byte[] encoded;
+
+    private ChunkedMessage(MimeMessage message, Builder builder, byte[] encoded) {
+        this.message = message;
+        this.builder = builder;
+        this.encoded = encoded;
+    }
+
+    /**
+     * @param builder builds the message, called again for every chunk when an attachment is streamed
+     */
+    static ChunkedMessage of(EmailNotification email, Builder builder) throws MessagingException, IOException {
+
+        final MimeMessage message = builder.build();
+        message.saveChanges();
+
+        if (streamsAttachments(email.attachments())) {
+            return new ChunkedMessage(message, builder, null);
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out, NOT_WRITTEN);
+        return new ChunkedMessage(message, builder, out.toByteArray());
+    }
+
+    Address[] recipients() throws MessagingException {
+        return message.getAllRecipients();
+    }
+
+    /**
+     * @return the message to send to one chunk, the envelope recipients are given to the transport
+     */
+    MimeMessage forChunk(Session session) throws MessagingException, IOException {
+
+        if (encoded == null) {
+            final MimeMessage chunk = builder.build();
+            chunk.saveChanges();
+            for (String header : SHARED_HEADERS) {
+                final String value = message.getHeader(header, null);
+                if (value != null) {
+                    chunk.setHeader(header, value);
+                }
+            }
+            return chunk;
+        }
+
+        //parsing keeps the bytes as they are, only the headers are read
+        return new MimeMessage(session, new SharedByteArrayInputStream(encoded));
+    }
+
+    private static boolean streamsAttachments(Collection<EmailAttachment> attachments) {
+
+        if (attachments == null) {
+            return false;
+        }
+
+        for (EmailAttachment attachment : attachments) {
+            if (!(attachment.source() instanceof AttachmentSource.BytesSource)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @FunctionalInterface
+    interface Builder {
+
+        MimeMessage build() throws MessagingException, IOException;
+    }
+}
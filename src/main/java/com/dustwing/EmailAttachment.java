@@ -1,6 +1,37 @@
 package com.dustwing;
 
-public record EmailAttachment(String fileName, byte[] content, String mimeType) {
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 
+public record EmailAttachment(String fileName, String mimeType, AttachmentSource source) {
+
+    public EmailAttachment(String fileName, byte[] content, String mimeType) {
+        this(fileName, mimeType, AttachmentSource.ofBytes(content));
+    }
+
+    /**
+     * Read from the file on every send, the file name is taken from the path.
+     */
+    public static EmailAttachment ofPath(Path path, String mimeType) {
+        return new EmailAttachment(path.getFileName().toString(), mimeType, AttachmentSource.ofPath(path));
+    }
+
+    /**
+     * Reads the whole source into memory, prefer {@link #source()}.
+     */
+    public byte[] content() {
+
+        if (source instanceof AttachmentSource.BytesSource bytes) {
+            return bytes.bytes();
+        }
+
+        try (InputStream in = source.openStream()) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
 }
@@ -1,28 +1,47 @@
 package com.dustwing;
 
+import com.dustwing.concurrent.Schedulers;
+import com.dustwing.metrics.EmailMetrics;
 import com.dustwing.result.Failure;
 import com.dustwing.result.Result;
 import com.dustwing.result.Success;
+import com.dustwing.transport.TransportLease;
+import com.dustwing.transport.TransportPool;
+import com.dustwing.transport.TransportPoolException;
 import jakarta.activation.DataHandler;
-import jakarta.activation.DataSource;
 import jakarta.mail.*;
-import jakarta.mail.internet.InternetAddress;
 import jakarta.mail.internet.MimeBodyPart;
 import jakarta.mail.internet.MimeMessage;
 import jakarta.mail.internet.MimeMultipart;
-import jakarta.mail.util.ByteArrayDataSource;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
-public class EmailSender implements IEmailSender<EmailNotification> {
+public class EmailSender implements IEmailSender<EmailNotification>, AutoCloseable {
 
     final Session session;
 
+    final TransportPool transportPool;
+
+    final InlineImageCache inlineImageCache;
+
+    private final AddressCache addressCache = AddressCache.shared();
+
+    //0 puts every recipient on one message
+    private final int maxRecipientsPerMessage;
+
+    private final EmailMetrics metrics;
+
     public static EmailSender create(
             final Properties properties,
             final String user,
@@ -50,21 +69,65 @@ public class EmailSender implements IEmailSender<EmailNotification> {
 
     public EmailSender(
             final Session session
+    ) {
+        this(session, null);
+    }
+
+    /**
+     * @param transportPool when not null messages are sent over pooled connections instead of
+     *                      opening a new connection per message
+     */
+    public EmailSender(
+            final Session session,
+            final TransportPool transportPool
+    ) {
+        this(session, transportPool, null);
+    }
+
+    /**
+     * @param inlineImageCache when not null inline images are encoded once and reused
+     */
+    public EmailSender(
+            final Session session,
+            final TransportPool transportPool,
+            final InlineImageCache inlineImageCache
+    ) {
+        this(session, transportPool, inlineImageCache, 0, null);
+    }
+
+    private EmailSender(
+            final Session session,
+            final TransportPool transportPool,
+            final InlineImageCache inlineImageCache,
+            final int maxRecipientsPerMessage,
+            final EmailMetrics metrics
     ) {
         this.session = session;
+        this.transportPool = transportPool;
+        this.inlineImageCache = inlineImageCache;
+        this.maxRecipientsPerMessage = maxRecipientsPerMessage;
+        this.metrics = metrics;
     }
 
 
     @Override
     public Result<EmailNotification> send(final EmailNotification email) {
 
+        if (needsChunking(email)) {
+            return combine(email, sendChunked(email));
+        }
+
+        if (metrics != null) {
+            return sendTimed(email);
+        }
+
         try {
 
             Message message = buildMessage(email, session);
 
-            Transport.send(message);
+            sendMessage(message);
 
-        } catch (MessagingException | IOException e) {
+        } catch (MessagingException | IOException | TransportPoolException e) {
             return new Failure<>(email, e);
         }
 
@@ -72,7 +135,285 @@ public class EmailSender implements IEmailSender<EmailNotification> {
 
     }
 
-    private Message buildMessage(
+    /**
+     * Same as {@link #send} but reports how long building, connecting and transmitting took.
+     * A failure is reported with the time spent in the phase that failed.
+     */
+    private Result<EmailNotification> sendTimed(final EmailNotification email) {
+
+        final long start = System.nanoTime();
+        long built = 0;
+        long connected = 0;
+
+        try (TransportLease lease = lease()) {
+
+            final MimeMessage message = buildMessage(email, session);
+            message.saveChanges();
+            built = System.nanoTime();
+
+            lease.transport();
+            connected = System.nanoTime();
+
+            lease.send(message, message.getAllRecipients());
+            metrics.onSend(built - start, connected - built, System.nanoTime() - connected, true);
+
+        } catch (MessagingException | IOException | TransportPoolException e) {
+
+            final long failed = System.nanoTime();
+            if (built == 0) {
+                metrics.onSend(failed - start, 0, 0, false);
+            } else if (connected == 0) {
+                metrics.onSend(built - start, failed - built, 0, false);
+            } else {
+                metrics.onSend(built - start, connected - built, failed - connected, false);
+            }
+            return new Failure<>(email, e);
+        }
+
+        return new Success<>(email);
+    }
+
+    /**
+     * Sends a message that is already built, over the pool when there is one.
+     */
+    public void sendMessage(final Message message) throws MessagingException, TransportPoolException {
+
+        if (transportPool == null) {
+            Transport.send(message);
+        } else {
+            sendPooled(message);
+        }
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    @Override
+    public void close() {
+        if (transportPool != null) {
+            transportPool.close();
+        }
+    }
+
+    /**
+     * Sends every notification over one connection: borrowed from the pool when one is configured,
+     * otherwise opened for the batch and closed at the end. Notifications that need chunking send their
+     * chunks one after another over the same connection.
+     */
+    @Override
+    public List<Result<EmailNotification>> sendBatch(final Collection<EmailNotification> emails) {
+
+        final List<Result<EmailNotification>> results = new ArrayList<>(emails.size());
+
+        try (TransportLease lease = lease()) {
+
+            for (EmailNotification email : emails) {
+
+                if (needsChunking(email)) {
+                    results.add(combine(email, sendChunked(email, lease)));
+                    continue;
+                }
+
+                try {
+
+                    final Message message = buildMessage(email, session);
+                    message.saveChanges();
+
+                    lease.send(message, message.getAllRecipients());
+
+                    results.add(new Success<>(email));
+
+                } catch (MessagingException | IOException | TransportPoolException e) {
+                    results.add(new Failure<>(email, e));
+                }
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Sends the same content to every recipient in a message of its own, the recipient alone in the To
+     * header. The content is encoded once and shared, each message only adds its headers. The
+     * recipients of {@code content} are not used.
+     *
+     * @return one result per recipient, in order
+     */
+    public List<Result<String>> fanOut(final EmailNotification content, final Stream<String> recipients) {
+
+        final SharedMimeContent shared;
+        try {
+            shared = SharedMimeContent.encode(buildMessage(content, session));
+        } catch (MessagingException | IOException e) {
+            return recipients.<Result<String>>map(r -> new Failure<>(r, e)).toList();
+        }
+
+        final List<Result<String>> results = new ArrayList<>();
+
+        try (TransportLease lease = lease()) {
+
+            final Iterator<String> iterator = recipients.iterator();
+            while (iterator.hasNext()) {
+                final String recipient = iterator.next();
+                try {
+
+                    final Address[] to = {addressCache.parse(recipient)};
+                    lease.send(shared.newMessage(session, to), to);
+
+                    results.add(new Success<>(recipient));
+
+                } catch (MessagingException | TransportPoolException e) {
+                    results.add(new Failure<>(recipient, e));
+                }
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Sends the message in chunks of at most {@code maxRecipientsPerMessage} envelope recipients, in
+     * parallel. The headers list the to and cc recipients as usual, see {@link ChunkedMessage} for how
+     * the content is shared between chunks. Without a transport pool every chunk opens a connection of
+     * its own.
+     *
+     * @return one result per chunk holding the recipients of the chunk, in order
+     */
+    public List<Result<List<String>>> sendChunked(final EmailNotification email) {
+
+        final ChunkedMessage message;
+        final List<Address[]> chunks;
+        try {
+            message = ChunkedMessage.of(email, () -> buildMessage(email, session));
+            chunks = chunks(message.recipients());
+
+        } catch (MessagingException | IOException e) {
+            return List.of(new Failure<>(allRecipients(email), e));
+        }
+
+        final List<CompletableFuture<Result<List<String>>>> sends = new ArrayList<>(chunks.size());
+        for (Address[] chunk : chunks) {
+            sends.add(CompletableFuture.supplyAsync(() -> sendChunk(message, chunk), Schedulers.blocking()));
+        }
+
+        return sends.stream().map(CompletableFuture::join).toList();
+    }
+
+    /**
+     * Sends the chunks one after another over a connection the caller already holds, borrowing more
+     * from the pool could wait on the caller itself.
+     */
+    private List<Result<List<String>>> sendChunked(final EmailNotification email, final TransportLease lease) {
+
+        final ChunkedMessage message;
+        final List<Address[]> chunks;
+        try {
+            message = ChunkedMessage.of(email, () -> buildMessage(email, session));
+            chunks = chunks(message.recipients());
+
+        } catch (MessagingException | IOException e) {
+            return List.of(new Failure<>(allRecipients(email), e));
+        }
+
+        final List<Result<List<String>>> results = new ArrayList<>(chunks.size());
+        for (Address[] chunk : chunks) {
+            results.add(sendChunk(message, chunk, lease));
+        }
+        return results;
+    }
+
+    /**
+     * Sends a chunked message to {@code chunk} only, whatever its headers list.
+     */
+    Result<List<String>> sendChunk(final ChunkedMessage message, final Address[] chunk) {
+        try (TransportLease lease = lease()) {
+            return sendChunk(message, chunk, lease);
+        }
+    }
+
+    private Result<List<String>> sendChunk(final ChunkedMessage message, final Address[] chunk, final TransportLease lease) {
+
+        final List<String> recipients = Arrays.stream(chunk).map(Address::toString).toList();
+
+        try {
+            lease.send(message.forChunk(session), chunk);
+        } catch (MessagingException | IOException | TransportPoolException e) {
+            return new Failure<>(recipients, e);
+        }
+
+        return new Success<>(recipients);
+    }
+
+    private List<Address[]> chunks(final Address[] recipients) {
+
+        final int size = maxRecipientsPerMessage > 0 ? maxRecipientsPerMessage : recipients.length;
+        final List<Address[]> chunks = new ArrayList<>();
+
+        for (int from = 0; from < recipients.length; from += size) {
+            chunks.add(Arrays.copyOfRange(recipients, from, Math.min(recipients.length, from + size)));
+        }
+        return chunks;
+    }
+
+    private boolean needsChunking(final EmailNotification email) {
+
+        if (maxRecipientsPerMessage <= 0) {
+            return false;
+        }
+
+        return size(email.toRecipients()) + size(email.ccRecipients()) + size(email.bccRecipients()) > maxRecipientsPerMessage;
+    }
+
+    private static Result<EmailNotification> combine(final EmailNotification email, final List<Result<List<String>>> chunks) {
+
+        final long failed = chunks.stream().filter(c -> c instanceof Failure).count();
+        if (failed == 0) {
+            return new Success<>(email);
+        }
+
+        return new Failure<>(email, new PartialDeliveryException(failed + " of " + chunks.size() + " chunks failed", chunks));
+    }
+
+    private static int size(final Collection<String> recipients) {
+        return recipients == null ? 0 : recipients.size();
+    }
+
+    static List<String> allRecipients(final EmailNotification email) {
+
+        final List<String> recipients = new ArrayList<>();
+        for (Collection<String> part : Arrays.asList(email.toRecipients(), email.ccRecipients(), email.bccRecipients())) {
+            if (part != null) {
+                recipients.addAll(part);
+            }
+        }
+        return recipients;
+    }
+
+    private void sendPooled(final Message message) throws MessagingException, TransportPoolException {
+
+        message.saveChanges();
+
+        try (TransportLease lease = new TransportLease(transportPool, false)) {
+            lease.send(message, message.getAllRecipients());
+        }
+    }
+
+    TransportLease lease() {
+
+        if (transportPool != null) {
+            return new TransportLease(transportPool, false);
+        }
+
+        final TransportPool single = TransportPool.builder()
+                .maxTotal(1)
+                .maxMessagesPerConnection(Integer.MAX_VALUE)
+                .build(session);
+
+        return new TransportLease(single, true);
+    }
+
+    MimeMessage buildMessage(
             final EmailNotification emailNotification, final Session session
     ) throws MessagingException, IOException {
         final boolean isHtml = emailNotification.isHtml();
@@ -80,7 +421,7 @@ public class EmailSender implements IEmailSender<EmailNotification> {
 
         final MimeMessage message = new MimeMessage(session);
 
-        message.setFrom(new InternetAddress(emailNotification.from()));
+        message.setFrom(addressCache.parse(emailNotification.from()));
 
 
         setRecipients(message, emailNotification.toRecipients(), Message.RecipientType.TO);
@@ -157,21 +498,15 @@ public class EmailSender implements IEmailSender<EmailNotification> {
     }
 
 
-    private void setRecipients(final MimeMessage message, Collection<String> recipients, Message.RecipientType type) {
+    private void setRecipients(final MimeMessage message, Collection<String> recipients, Message.RecipientType type) throws MessagingException {
 
         if (recipients == null) {
             return;
         }
 
-        recipients.forEach(
-                e -> {
-                    try {
-                        message.addRecipient(type, new InternetAddress(e));
-                    } catch (MessagingException ex) {
-                        throw new RuntimeException(ex);
-                    }
-                }
-        );
+        for (String recipient : recipients) {
+            message.addRecipient(type, addressCache.parse(recipient));
+        }
     }
 
     private void addImagesInBody(final Multipart multipart, final Map<String, File> mapInlineImages) throws MessagingException, IOException {
@@ -184,10 +519,15 @@ public class EmailSender implements IEmailSender<EmailNotification> {
         Set<String> setImageID = mapInlineImages.keySet();
 
         for (String contentId : setImageID) {
-            MimeBodyPart imagePart = new MimeBodyPart();
+            final MimeBodyPart imagePart;
+            if (inlineImageCache != null) {
+                imagePart = inlineImageCache.createPart(mapInlineImages.get(contentId));
+            } else {
+                imagePart = new MimeBodyPart();
+                imagePart.attachFile(mapInlineImages.get(contentId));
+            }
             imagePart.setHeader("Content-ID", "<" + contentId + ">");
             imagePart.setDisposition(MimeBodyPart.INLINE);
-            imagePart.attachFile(mapInlineImages.get(contentId));
             multipart.addBodyPart(imagePart);
         }
 
@@ -197,14 +537,107 @@ public class EmailSender implements IEmailSender<EmailNotification> {
 
         for (EmailAttachment att : attachments) {
             // Part two is attachment
-            final BodyPart attachmentBodyPart = new MimeBodyPart();
-            final DataSource source = new ByteArrayDataSource(att.content(), att.mimeType());
+            final MimeBodyPart attachmentBodyPart = new MimeBodyPart();
 
-            attachmentBodyPart.setDataHandler(new DataHandler(source));
+            attachmentBodyPart.setDataHandler(new DataHandler(new AttachmentDataSource(att)));
             attachmentBodyPart.setFileName(att.fileName());
+            //otherwise the whole source is read once just to pick an encoding
+            attachmentBodyPart.setHeader("Content-Transfer-Encoding", "base64");
 
             multipart.addBodyPart(attachmentBodyPart);
         }
     }
 
+    public static EmailSenderBuilder builder() {
+        return new EmailSenderBuilder();
+    }
+
+    public static class EmailSenderBuilder {
+        private Session session;
+        private Properties properties;
+        private String user;
+        private String password;
+        private TransportPool.TransportPoolBuilder transportPool;
+        private InlineImageCache inlineImageCache;
+        private int maxRecipientsPerMessage;
+        private EmailMetrics metrics;
+
+        public EmailSenderBuilder session(Session session) {
+            this.session = session;
+            return this;
+        }
+
+        public EmailSenderBuilder properties(Properties properties) {
+            this.properties = properties;
+            return this;
+        }
+
+        public EmailSenderBuilder credentials(String user, String password) {
+            this.user = user;
+            this.password = password;
+            return this;
+        }
+
+        public EmailSenderBuilder withTransportPool(TransportPool.TransportPoolBuilder transportPool) {
+            this.transportPool = transportPool;
+            return this;
+        }
+
+        public EmailSenderBuilder withInlineImageCache(InlineImageCache inlineImageCache) {
+            this.inlineImageCache = inlineImageCache;
+            return this;
+        }
+
+        /**
+         * Splits messages with more envelope recipients than this into chunks sent in parallel,
+         * for relays that limit the RCPT commands per message. 0, the default, never splits.
+         * Each chunk takes its own connection, use it with a transport pool.
+         */
+        public EmailSenderBuilder maxRecipientsPerMessage(int maxRecipientsPerMessage) {
+            this.maxRecipientsPerMessage = maxRecipientsPerMessage;
+            return this;
+        }
+
+        /**
+         * Times building, connecting and transmitting of every message sent one at a time.
+         */
+        public EmailSenderBuilder withMetrics(EmailMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public EmailSender build() {
+
+            if (maxRecipientsPerMessage < 0) {
+                throw new IllegalArgumentException("maxRecipientsPerMessage must not be negative");
+            }
+
+
+            final Session session = this.session != null ? this.session : createSession();
+
+            final TransportPool pool = transportPool == null ? null : transportPool.build(session);
+
+            return new EmailSender(session, pool, inlineImageCache, maxRecipientsPerMessage, metrics);
+        }
+
+        private Session createSession() {
+
+            if (properties == null) {
+                throw new IllegalArgumentException("properties or session must be set");
+            }
+
+            if (user == null) {
+                return Session.getInstance(properties);
+            }
+
+            return Session.getInstance(
+                    properties,
+                    new Authenticator() {
+                        protected PasswordAuthentication getPasswordAuthentication() {
+                            return new PasswordAuthentication(user, password);
+                        }
+                    });
+        }
+    }
+
 }
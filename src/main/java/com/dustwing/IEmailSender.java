@@ -2,6 +2,16 @@ package com.dustwing;
 
 import com.dustwing.result.Result;
 
+import java.util.Collection;
+import java.util.List;
+
 public interface IEmailSender<T> {
     Result<T> send(T t);
+
+    /**
+     * Sends every item and returns one result per item, in the same order.
+     */
+    default List<Result<T>> sendBatch(Collection<T> ts) {
+        return ts.stream().map(this::send).toList();
+    }
 }
@@ -0,0 +1,121 @@
+package com.dustwing;
+
+import jakarta.activation.DataHandler;
+import jakarta.activation.FileTypeMap;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.PreencodedMimeBodyPart;
+import jakarta.mail.util.ByteArrayDataSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Base64 encoded inline images, can be shared in multiple EmailSender
+ * <p>
+ * An image is read and encoded the first time it is used, later sends reuse the encoded bytes and only
+ * check the file size and modification time. Least recently used images are evicted once the encoded
+ * bytes pass {@code maxBytes}, images larger than that are never cached.
+ */
+public class InlineImageCache {
+
+    private final long maxBytes;
+
+    private final Map<Key, Encoded> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long totalBytes;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    public InlineImageCache(long maxBytes) {
+
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return a new body part holding the encoded image, the caller sets its Content-ID and disposition
+     */
+    public MimeBodyPart createPart(File file) throws IOException, MessagingException {
+
+        final Path path = file.toPath().toAbsolutePath();
+        final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        final Key key = new Key(path, attributes.lastModifiedTime().toMillis(), attributes.size());
+
+        Encoded encoded = get(key);
+        if (encoded == null) {
+            misses.increment();
+            encoded = new Encoded(
+                    Base64.getMimeEncoder().encode(Files.readAllBytes(path)),
+                    FileTypeMap.getDefaultFileTypeMap().getContentType(file)
+            );
+            put(key, encoded);
+        } else {
+            hits.increment();
+        }
+
+        final PreencodedMimeBodyPart part = new PreencodedMimeBodyPart("base64");
+        part.setDataHandler(new DataHandler(new ByteArrayDataSource(encoded.bytes(), encoded.contentType())));
+        part.setFileName(file.getName());
+        return part;
+    }
+
+    private synchronized Encoded get(Key key) {
+        return entries.get(key);
+    }
+
+    private synchronized void put(Key key, Encoded encoded) {
+
+        final long size = encoded.bytes().length;
+        if (size > maxBytes) {
+            return;
+        }
+
+        final Encoded previous = entries.put(key, encoded);
+        totalBytes += size - (previous == null ? 0 : previous.bytes().length);
+
+        final Iterator<Encoded> eldest = entries.values().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            totalBytes -= eldest.next().bytes().length;
+            eldest.remove();
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    //a changed file gets a new key, its old entry ages out
+    private record Key(Path path, long lastModified, long size) {
+
+    }
+
+    private record Encoded(byte[] bytes, String contentType) {
+
+    }
+}
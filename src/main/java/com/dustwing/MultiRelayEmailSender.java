@@ -0,0 +1,422 @@
+package com.dustwing;
+
+import com.dustwing.concurrent.Schedulers;
+import com.dustwing.result.Failure;
+import com.dustwing.result.Result;
+import com.dustwing.result.Success;
+import com.dustwing.transport.TransportLease;
+import com.dustwing.transport.TransportPoolException;
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends over several SMTP relays, each one an {@link EmailSender} with its own session.
+ * <p>
+ * Every relay keeps a moving average (EWMA) of the latency of its successful sends and of its error rate.
+ * The score is the latency plus the error rate times a fixed penalty, so a relay that fails fast never
+ * looks better than a slow one that works. A message goes to the relay with the best score and fails
+ * over to the next ones in score order. A small share of messages
+ * is sent to another relay so a relay that recovered gets noticed.
+ * <p>
+ * With hedging on, when getting a connection from the chosen relay takes longer than its p95 the next
+ * relay is asked for a connection as well and the message goes over whichever connection comes first,
+ * waiting at most {@code acquireTimeout} for either.
+ * Only the connection is hedged, the message itself is sent once, so there are no duplicates. The losing
+ * connection goes back to its pool.
+ */
+public class MultiRelayEmailSender implements IEmailSender<EmailNotification>, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MultiRelayEmailSender.class);
+
+    //one sided z score of the 95th percentile
+    private static final double P95_Z = 1.645;
+
+    private final Relay[] relays;
+
+    private final long errorPenaltyNanos;
+
+    private final double probeRatio;
+
+    private final boolean hedge;
+
+    private final long minHedgeDelayNanos;
+
+    private final long acquireTimeoutNanos;
+
+    private final Executor executor;
+
+    private final LongAdder hedged = new LongAdder();
+
+    private MultiRelayEmailSender(
+            Relay[] relays,
+            Duration errorPenalty,
+            double probeRatio,
+            boolean hedge,
+            Duration minHedgeDelay,
+            Duration acquireTimeout,
+            Executor executor
+    ) {
+        this.relays = relays;
+        this.errorPenaltyNanos = errorPenalty.toNanos();
+        this.probeRatio = probeRatio;
+        this.hedge = hedge;
+        this.minHedgeDelayNanos = minHedgeDelay.toNanos();
+        this.acquireTimeoutNanos = acquireTimeout.toNanos();
+        this.executor = executor;
+    }
+
+    @Override
+    public Result<EmailNotification> send(final EmailNotification email) {
+
+        final Message message;
+        final Address[] recipients;
+        try {
+            message = relays[0].sender.buildMessage(email, relays[0].sender.session);
+            message.saveChanges();
+            recipients = message.getAllRecipients();
+        } catch (MessagingException | IOException e) {
+            return new Failure<>(email, e);
+        }
+
+        final Relay[] order = rank();
+        Exception last = null;
+
+        for (int i = 0; i < order.length; i++) {
+
+            final Relay relay = order[i];
+            final Relay second = hedge && i + 1 < order.length ? order[i + 1] : null;
+
+            try {
+                sendOn(relay, second, message, recipients);
+                return new Success<>(email);
+
+            } catch (SendFailedException e) {
+                //bad recipients fail on every relay
+                if (e.getInvalidAddresses() != null && e.getInvalidAddresses().length > 0) {
+                    return new Failure<>(email, e);
+                }
+                last = e;
+            } catch (MessagingException | TransportPoolException e) {
+                last = e;
+            }
+
+            logger.warn("Relay {} failed, trying the next one", relay.name, last);
+        }
+
+        return new Failure<>(email, last);
+    }
+
+    private void sendOn(Relay relay, Relay second, Message message, Address[] recipients)
+            throws MessagingException, TransportPoolException {
+
+        final Acquired acquired = acquire(relay, second);
+        final long start = System.nanoTime();
+
+        try (TransportLease lease = acquired.lease()) {
+            lease.send(message, recipients);
+            acquired.relay().onSend(true, System.nanoTime() - start + acquired.acquireNanos());
+        } catch (MessagingException | TransportPoolException e) {
+            acquired.relay().onSend(false, System.nanoTime() - start + acquired.acquireNanos());
+            throw e;
+        }
+    }
+
+    private Acquired acquire(Relay relay, Relay second) throws MessagingException, TransportPoolException {
+
+        if (second == null) {
+            return acquireNow(relay);
+        }
+
+        final CompletableFuture<Acquired> winner = new CompletableFuture<>();
+        final AtomicInteger pending = new AtomicInteger(1);
+
+        acquireAsync(relay, winner, pending);
+
+        try {
+            return unwrap(winner, Math.max(minHedgeDelayNanos, relay.acquireP95Nanos()));
+        } catch (TimeoutException e) {
+            logger.debug("Relay {} is slow to connect, hedging with {}", relay.name, second.name);
+            hedged.increment();
+        }
+
+        pending.incrementAndGet();
+        acquireAsync(second, winner, pending);
+
+        try {
+            return unwrap(winner, acquireTimeoutNanos);
+        } catch (TimeoutException e) {
+            //a connection that still comes goes back to its pool
+            winner.completeExceptionally(e);
+            throw new TransportPoolException("Timed out getting a connection", e);
+        }
+    }
+
+    private Acquired acquireNow(Relay relay) throws MessagingException, TransportPoolException {
+
+        final TransportLease lease = relay.sender.lease();
+        final long start = System.nanoTime();
+
+        try {
+            lease.transport();
+        } catch (MessagingException | TransportPoolException e) {
+            lease.close();
+            relay.onSend(false, System.nanoTime() - start);
+            throw e;
+        }
+
+        final long acquireNanos = System.nanoTime() - start;
+        relay.onAcquire(acquireNanos);
+        return new Acquired(relay, lease, acquireNanos);
+    }
+
+    private void acquireAsync(Relay relay, CompletableFuture<Acquired> winner, AtomicInteger pending) {
+        executor.execute(() -> {
+            try {
+                final Acquired acquired = acquireNow(relay);
+                //the other relay won, keep the connection warm in its pool
+                if (!winner.complete(acquired)) {
+                    acquired.lease().close();
+                }
+            } catch (Exception e) {
+                //fail only when no other request is still running
+                if (pending.decrementAndGet() == 0) {
+                    winner.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    private static Acquired unwrap(CompletableFuture<Acquired> winner, long timeoutNanos)
+            throws MessagingException, TransportPoolException, TimeoutException {
+        try {
+            return winner.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransportPoolException("Interrupted getting a connection", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MessagingException me) throw me;
+            if (e.getCause() instanceof TransportPoolException te) throw te;
+            throw new TransportPoolException("Could not get a connection", e.getCause());
+        }
+    }
+
+    /**
+     * Relays best score first, lower is better.
+     */
+    Relay[] rank() {
+
+        final Relay[] order = relays.clone();
+        Arrays.sort(order, Comparator.comparingDouble(r -> r.score(errorPenaltyNanos)));
+
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (order.length > 1 && random.nextDouble() < probeRatio) {
+            final int probe = 1 + random.nextInt(order.length - 1);
+            final Relay first = order[0];
+            order[0] = order[probe];
+            order[probe] = first;
+        }
+
+        return order;
+    }
+
+    /**
+     * @return times the connection of a second relay was requested
+     */
+    public long getHedged() {
+        return hedged.sum();
+    }
+
+    public List<String> getRelayNames() {
+        return Arrays.stream(relays).map(r -> r.name).toList();
+    }
+
+    @Override
+    public void close() {
+        for (Relay relay : relays) {
+            relay.sender.close();
+        }
+    }
+
+    public static MultiRelayEmailSenderBuilder builder() {
+        return new MultiRelayEmailSenderBuilder();
+    }
+
+    public static class MultiRelayEmailSenderBuilder {
+        private final List<String> names = new ArrayList<>();
+        private final List<EmailSender> senders = new ArrayList<>();
+        private double alpha = 0.2;
+        private Duration errorPenalty = Duration.ofSeconds(5);
+        private double probeRatio = 0.01;
+        private boolean hedge;
+        private Duration minHedgeDelay = Duration.ofMillis(50);
+        private Duration acquireTimeout = Duration.ofSeconds(30);
+        private Executor executor;
+
+        /**
+         * @param sender relays are tried in the order they are added until they have a latency history
+         */
+        public MultiRelayEmailSenderBuilder relay(String name, EmailSender sender) {
+            names.add(name);
+            senders.add(sender);
+            return this;
+        }
+
+        /**
+         * @param alpha weight of the newest sample in the moving averages, between 0 and 1
+         */
+        public MultiRelayEmailSenderBuilder ewmaAlpha(double alpha) {
+            this.alpha = alpha;
+            return this;
+        }
+
+        /**
+         * @param errorPenalty latency added to the score of a relay failing every message, in proportion
+         *                     for fewer failures. Should be well above the latency of a working relay
+         */
+        public MultiRelayEmailSenderBuilder errorPenalty(Duration errorPenalty) {
+            this.errorPenalty = errorPenalty;
+            return this;
+        }
+
+        /**
+         * @param probeRatio share of messages sent to a relay other than the best one
+         */
+        public MultiRelayEmailSenderBuilder probeRatio(double probeRatio) {
+            this.probeRatio = probeRatio;
+            return this;
+        }
+
+        /**
+         * @param minHedgeDelay never hedge before this, even when the p95 of a relay is lower
+         */
+        public MultiRelayEmailSenderBuilder hedge(Duration minHedgeDelay) {
+            this.hedge = true;
+            this.minHedgeDelay = minHedgeDelay;
+            return this;
+        }
+
+        /**
+         * @param acquireTimeout longest a hedged send waits for a connection from either relay
+         */
+        public MultiRelayEmailSenderBuilder acquireTimeout(Duration acquireTimeout) {
+            this.acquireTimeout = acquireTimeout;
+            return this;
+        }
+
+        /**
+         * @param executor gets the connections when hedging, defaults to {@link Schedulers#blocking()}
+         */
+        public MultiRelayEmailSenderBuilder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public MultiRelayEmailSender build() {
+
+            if (senders.isEmpty()) {
+                throw new IllegalArgumentException("at least one relay must be added");
+            }
+            if (alpha <= 0 || alpha > 1) {
+                throw new IllegalArgumentException("alpha must be in (0, 1]");
+            }
+
+            final Relay[] relays = new Relay[senders.size()];
+            for (int i = 0; i < relays.length; i++) {
+                relays[i] = new Relay(names.get(i), senders.get(i), alpha);
+            }
+
+            return new MultiRelayEmailSender(
+                    relays,
+                    errorPenalty,
+                    probeRatio,
+                    hedge,
+                    minHedgeDelay,
+                    acquireTimeout,
+                    executor != null ? executor : Schedulers.blocking()
+            );
+        }
+    }
+
+    private record Acquired(Relay relay, TransportLease lease, long acquireNanos) {
+
+    }
+
+    static final class Relay {
+
+        private final String name;
+
+        private final EmailSender sender;
+
+        private final double alpha;
+
+        private volatile double latencyNanos;
+
+        private volatile double errorRate;
+
+        private volatile double acquireMeanNanos;
+
+        private volatile double acquireVarianceNanos;
+
+        private Relay(String name, EmailSender sender, double alpha) {
+            this.name = name;
+            this.sender = sender;
+            this.alpha = alpha;
+        }
+
+        String name() {
+            return name;
+        }
+
+        double score(long errorPenaltyNanos) {
+            return latencyNanos + errorPenaltyNanos * errorRate;
+        }
+
+        double errorRate() {
+            return errorRate;
+        }
+
+        /**
+         * Failures only count towards the error rate, a refused connection is fast and would otherwise
+         * make the relay look quick.
+         */
+        private synchronized void onSend(boolean success, long nanos) {
+            if (success) {
+                latencyNanos = latencyNanos == 0 ? nanos : latencyNanos + alpha * (nanos - latencyNanos);
+            }
+            errorRate = errorRate + alpha * ((success ? 0 : 1) - errorRate);
+        }
+
+        private synchronized void onAcquire(long nanos) {
+            if (acquireMeanNanos == 0) {
+                acquireMeanNanos = nanos;
+                return;
+            }
+            final double diff = nanos - acquireMeanNanos;
+            acquireMeanNanos = acquireMeanNanos + alpha * diff;
+            acquireVarianceNanos = (1 - alpha) * (acquireVarianceNanos + alpha * diff * diff);
+        }
+
+        private long acquireP95Nanos() {
+            return (long) (acquireMeanNanos + P95_Z * Math.sqrt(acquireVarianceNanos));
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.dustwing;
+
+import com.dustwing.result.Result;
+
+import java.util.List;
+
+/**
+ * Some recipient chunks of a message were not delivered, {@link #getChunks()} has the outcome of each.
+ */
+public class PartialDeliveryException extends EmailException {
+
+    private final List<Result<List<String>>> chunks;
+
+    public PartialDeliveryException(String message, List<Result<List<String>>> chunks) {
+        super(message);
+        this.chunks = chunks;
+    }
+
+    /**
+     * @return one result per chunk holding the recipients of the chunk, in order
+     */
+    public List<Result<List<String>>> getChunks() {
+        return chunks;
+    }
+}
@@ -0,0 +1,282 @@
+package com.dustwing;
+
+import com.dustwing.result.Failure;
+import com.dustwing.result.Result;
+import com.dustwing.result.Success;
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.InternetAddress;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends each recipient through the route of its domain, every route an {@link EmailSender} with its
+ * own session and connection pool.
+ * <p>
+ * A domain is matched exactly first, then by its parent domains, then it takes the default route.
+ * Lookups are cached, the least recently used domain is dropped past {@value #MAX_CACHED_DOMAINS}.
+ * The recipients of a notification are grouped by route, the message is built once (see
+ * {@link ChunkedMessage}) and each group is sent on the executor of its route, so a slow route only
+ * holds up its own queue. The result is a {@link Failure} with a {@link PartialDeliveryException} when any group failed.
+ * <p>
+ * {@link #send} waits for the slowest route of the notification. Callers that must not be held up by
+ * it use {@link #sendAsync}, which returns once the groups are handed to their routes. An
+ * {@code EmailBlockingQueue} calls {@link #send}, so each of its workers is held until every route of
+ * the notification it sends has finished; give the queue enough workers to cover a slow route.
+ */
+public class RoutingEmailSender implements IEmailSender<EmailNotification>, AutoCloseable {
+
+    private static final int MAX_CACHED_DOMAINS = 10_000;
+
+    private final Map<String, Route> routes;
+
+    private final Route defaultRoute;
+
+    private final List<Route> allRoutes;
+
+    //domain to route, absent when there is no route and no default, access ordered and guarded by itself
+    private final Map<String, Route> resolved = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Route> eldest) {
+            return size() > MAX_CACHED_DOMAINS;
+        }
+    };
+
+    private RoutingEmailSender(Map<String, Route> routes, Route defaultRoute, List<Route> allRoutes) {
+        this.routes = routes;
+        this.defaultRoute = defaultRoute;
+        this.allRoutes = allRoutes;
+    }
+
+    /**
+     * Same as {@link #sendAsync} but waits for every route.
+     */
+    @Override
+    public Result<EmailNotification> send(final EmailNotification email) {
+        return sendAsync(email).join();
+    }
+
+    /**
+     * Builds the message and hands each group to the executor of its route without waiting for them.
+     *
+     * @return completes when every route has finished
+     */
+    public CompletableFuture<Result<EmailNotification>> sendAsync(final EmailNotification email) {
+
+        final ChunkedMessage message;
+        final Address[] recipients;
+        try {
+            final EmailSender first = allRoutes.get(0).sender;
+            message = ChunkedMessage.of(email, () -> first.buildMessage(email, first.session));
+            recipients = message.recipients();
+        } catch (MessagingException | IOException e) {
+            return CompletableFuture.completedFuture(new Failure<>(email, e));
+        }
+
+        final Map<Route, List<Address>> groups = new LinkedHashMap<>();
+        final List<Result<List<String>>> unrouted = new ArrayList<>();
+
+        for (Address recipient : recipients) {
+            final Route route = route(domainOf(recipient));
+            if (route == null) {
+                unrouted.add(new Failure<>(List.of(recipient.toString()), new EmailException("No route for " + recipient)));
+            } else {
+                groups.computeIfAbsent(route, r -> new ArrayList<>()).add(recipient);
+            }
+        }
+
+        final List<CompletableFuture<Result<List<String>>>> sends = new ArrayList<>(groups.size());
+        for (Map.Entry<Route, List<Address>> group : groups.entrySet()) {
+            sends.add(group.getKey().send(message, group.getValue().toArray(Address[]::new)));
+        }
+
+        return CompletableFuture.allOf(sends.toArray(CompletableFuture[]::new)).thenApply(done -> {
+
+            final List<Result<List<String>>> results = new ArrayList<>(unrouted);
+            for (CompletableFuture<Result<List<String>>> send : sends) {
+                results.add(send.join());
+            }
+
+            return combine(email, results);
+        });
+    }
+
+    private static Result<EmailNotification> combine(EmailNotification email, List<Result<List<String>>> results) {
+
+        final long failed = results.stream().filter(r -> r instanceof Failure).count();
+        if (failed == 0) {
+            return new Success<>(email);
+        }
+
+        return new Failure<>(email, new PartialDeliveryException(failed + " of " + results.size() + " routes failed", results));
+    }
+
+    /**
+     * @return the route name for the domain, null when there is none
+     */
+    String routeName(String domain) {
+        final Route route = route(domain);
+        return route == null ? null : route.name;
+    }
+
+    boolean isCached(String domain) {
+        synchronized (resolved) {
+            return resolved.containsKey(domain);
+        }
+    }
+
+    private Route route(String domain) {
+
+        synchronized (resolved) {
+            final Route cached = resolved.get(domain);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        final Route route = lookup(domain);
+        if (route != null) {
+            synchronized (resolved) {
+                resolved.put(domain, route);
+            }
+        }
+        return route;
+    }
+
+    private Route lookup(String domain) {
+
+        String candidate = domain;
+        while (true) {
+            final Route route = routes.get(candidate);
+            if (route != null) {
+                return route;
+            }
+
+            final int dot = candidate.indexOf('.');
+            if (dot < 0) {
+                return defaultRoute;
+            }
+            candidate = candidate.substring(dot + 1);
+        }
+    }
+
+    private static String domainOf(Address address) {
+
+        final String value = address instanceof InternetAddress internet ? internet.getAddress() : address.toString();
+        final int at = value.lastIndexOf('@');
+        return at < 0 ? "" : normalize(value.substring(at + 1));
+    }
+
+    private static String normalize(String domain) {
+        return domain.trim().toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public void close() {
+        for (Route route : allRoutes) {
+            route.executor.shutdown();
+            route.sender.close();
+        }
+    }
+
+    public static RoutingEmailSenderBuilder builder() {
+        return new RoutingEmailSenderBuilder();
+    }
+
+    public static class RoutingEmailSenderBuilder {
+        private final Map<String, Route> routes = new HashMap<>();
+        private final List<Route> allRoutes = new ArrayList<>();
+        private Route defaultRoute;
+
+        /**
+         * @param concurrency groups sent at the same time over this route, the others wait in its queue
+         * @param domains     also used for their subdomains
+         */
+        public RoutingEmailSenderBuilder route(String name, EmailSender sender, int concurrency, String... domains) {
+
+            final Route route = new Route(name, sender, concurrency);
+            allRoutes.add(route);
+
+            for (String domain : domains) {
+                if (routes.putIfAbsent(normalize(domain), route) != null) {
+                    throw new IllegalArgumentException("Domain " + domain + " already has a route");
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Route for domains without one of their own, without it those recipients fail.
+         */
+        public RoutingEmailSenderBuilder defaultRoute(String name, EmailSender sender, int concurrency) {
+
+            if (defaultRoute != null) {
+                throw new IllegalArgumentException("Default route is already set");
+            }
+
+            defaultRoute = new Route(name, sender, concurrency);
+            allRoutes.add(defaultRoute);
+            return this;
+        }
+
+        public RoutingEmailSender build() {
+
+            if (allRoutes.isEmpty()) {
+                throw new IllegalArgumentException("at least one route must be added");
+            }
+
+            return new RoutingEmailSender(Map.copyOf(routes), defaultRoute, List.copyOf(allRoutes));
+        }
+    }
+
+    private static final class Route {
+
+        private final String name;
+
+        private final EmailSender sender;
+
+        private final ExecutorService executor;
+
+        private Route(String name, EmailSender sender, int concurrency) {
+
+            if (concurrency < 1) {
+                throw new IllegalArgumentException("concurrency must be positive");
+            }
+
+            this.name = name;
+            this.sender = sender;
+            this.executor = Executors.newFixedThreadPool(concurrency, namedThreads(name));
+        }
+
+        private CompletableFuture<Result<List<String>>> send(ChunkedMessage message, Address[] recipients) {
+            try {
+                return CompletableFuture.supplyAsync(() -> sender.sendChunk(message, recipients), executor);
+            } catch (RejectedExecutionException e) {
+                final List<String> names = Arrays.stream(recipients).map(Address::toString).toList();
+                return CompletableFuture.completedFuture(new Failure<>(names, new EmailException("Route " + name + " is closed", e)));
+            }
+        }
+
+        private static ThreadFactory namedThreads(String name) {
+            final AtomicInteger count = new AtomicInteger();
+            return runnable -> {
+                final Thread thread = new Thread(runnable, "email-route-" + name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+}
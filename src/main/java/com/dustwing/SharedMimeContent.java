@@ -0,0 +1,92 @@
+package com.dustwing;
+
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Content of a message encoded once, shared by many messages that only differ in their recipients.
+ * Every message built from it writes the same content bytes, so a message costs its headers only.
+ */
+final class SharedMimeContent {
+
+    //content headers copied to every message
+    private static final String[] CONTENT_HEADERS = {"Content-Type", "Content-Transfer-Encoding"};
+
+    private static final String[] NOT_WRITTEN = {"To", "Cc", "Bcc", "Message-ID", "Date"};
+
+    private final Address[] from;
+
+    private final String subject;
+
+    private final String[] contentHeaders;
+
+    private final List<byte[]> content;
+
+    private SharedMimeContent(Address[] from, String subject, String[] contentHeaders, byte[] content) {
+        this.from = from;
+        this.subject = subject;
+        this.contentHeaders = contentHeaders;
+        this.content = List.of(content);
+    }
+
+    static SharedMimeContent encode(MimeMessage message) throws MessagingException, IOException {
+
+        message.saveChanges();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out, NOT_WRITTEN);
+        final byte[] raw = out.toByteArray();
+
+        final int start = contentStart(raw);
+        final byte[] content = new byte[raw.length - start];
+        System.arraycopy(raw, start, content, 0, content.length);
+
+        final String[] contentHeaders = new String[CONTENT_HEADERS.length];
+        for (int i = 0; i < CONTENT_HEADERS.length; i++) {
+            contentHeaders[i] = message.getHeader(CONTENT_HEADERS[i], null);
+        }
+
+        return new SharedMimeContent(message.getFrom(), message.getHeader("Subject", null), contentHeaders, content);
+    }
+
+    /**
+     * @param to written in the To header, the envelope recipients are given to the transport separately
+     */
+    SplicedMimeMessage newMessage(Session session, Address[] to) throws MessagingException {
+
+        final SplicedMimeMessage message = new SplicedMimeMessage(session, content);
+
+        message.addFrom(from);
+        message.setRecipients(Message.RecipientType.TO, to);
+        if (subject != null) {
+            //already encoded and folded
+            message.setHeader("Subject", subject);
+        }
+        message.setSentDate(new Date());
+
+        for (int i = 0; i < CONTENT_HEADERS.length; i++) {
+            if (contentHeaders[i] != null) {
+                message.setHeader(CONTENT_HEADERS[i], contentHeaders[i]);
+            }
+        }
+
+        return message;
+    }
+
+    private static int contentStart(byte[] raw) throws IOException {
+        for (int i = 0; i + 3 < raw.length; i++) {
+            if (raw[i] == '\r' && raw[i + 1] == '\n' && raw[i + 2] == '\r' && raw[i + 3] == '\n') {
+                return i + 4;
+            }
+        }
+        throw new IOException("Encoded message has no header separator");
+    }
+}
@@ -0,0 +1,81 @@
+package com.dustwing;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Message whose content is already MIME encoded, written as the header lines followed by the content
+ * segments. Segments are never copied or parsed, so they can be shared between many messages.
+ * <p>
+ * Only the headers are kept as objects. {@link #saveChanges()} just adds the Message-ID and MIME-Version
+ * headers, the content is never re-encoded.
+ */
+public class SplicedMimeMessage extends MimeMessage {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final List<byte[]> segments;
+
+    /**
+     * @param segments encoded content that follows the blank line after the headers, in order
+     */
+    public SplicedMimeMessage(Session session, List<byte[]> segments) {
+        super(session);
+        this.segments = segments;
+    }
+
+    @Override
+    protected void updateHeaders() throws MessagingException {
+        setHeader("MIME-Version", "1.0");
+        if (getHeader("Message-ID") == null) {
+            updateMessageID();
+        }
+    }
+
+    @Override
+    public void writeTo(OutputStream os, String[] ignoreList) throws IOException, MessagingException {
+
+        if (!saved) {
+            saveChanges();
+        }
+
+        final Enumeration<String> lines = getNonMatchingHeaderLines(ignoreList);
+        while (lines.hasMoreElements()) {
+            os.write(lines.nextElement().getBytes(StandardCharsets.UTF_8));
+            os.write(CRLF);
+        }
+        os.write(CRLF);
+
+        for (byte[] segment : segments) {
+            os.write(segment);
+        }
+        os.flush();
+    }
+
+    @Override
+    protected InputStream getContentStream() {
+        return new SequenceInputStream(Collections.enumeration(
+                segments.stream().map(ByteArrayInputStream::new).toList()
+        ));
+    }
+
+    @Override
+    public int getSize() {
+        long size = 0;
+        for (byte[] segment : segments) {
+            size += segment.length;
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+}
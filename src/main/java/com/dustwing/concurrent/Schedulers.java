@@ -0,0 +1,53 @@
+package com.dustwing.concurrent;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process wide executors shared by the policies.
+ * Both are created on first use and run on daemon threads.
+ */
+public final class Schedulers {
+
+    private Schedulers() {
+    }
+
+    /**
+     * Timer for delayed work such as retry backoff. Tasks scheduled here must only hand work over to
+     * another executor, they must not block.
+     */
+    public static ScheduledExecutorService shared() {
+        return SchedulerHolder.SCHEDULER;
+    }
+
+    /**
+     * Thread-per-task executor for blocking I/O, virtual threads when available.
+     */
+    public static ExecutorService blocking() {
+        return BlockingHolder.BLOCKING;
+    }
+
+    private static final class SchedulerHolder {
+        private static final ScheduledExecutorService SCHEDULER = createScheduler();
+
+        private static ScheduledExecutorService createScheduler() {
+            final AtomicInteger count = new AtomicInteger();
+            final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(
+                    Math.min(4, Runtime.getRuntime().availableProcessors()),
+                    r -> {
+                        final Thread thread = new Thread(r, "email-scheduler-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+            );
+            scheduler.setRemoveOnCancelPolicy(true);
+            return scheduler;
+        }
+    }
+
+    private static final class BlockingHolder {
+        private static final ExecutorService BLOCKING = VirtualThreads.newThreadPerTaskExecutor("email-blocking");
+    }
+}
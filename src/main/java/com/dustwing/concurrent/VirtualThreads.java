@@ -0,0 +1,57 @@
+package com.dustwing.concurrent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-per-task executors that use virtual threads when the running JVM has them (21+).
+ * On older JVMs a cached pool of daemon platform threads is used instead.
+ */
+public final class VirtualThreads {
+
+    private static final MethodHandle NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findFactory();
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isAvailable() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * @param name prefix for the platform threads used when virtual threads are not available
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String name) {
+
+        if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invokeExact();
+            } catch (Throwable e) {
+                throw new IllegalStateException("Could not create virtual thread executor", e);
+            }
+        }
+
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            final Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static MethodHandle findFactory() {
+        try {
+            return MethodHandles.publicLookup().findStatic(
+                    Executors.class,
+                    "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class)
+            );
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+}
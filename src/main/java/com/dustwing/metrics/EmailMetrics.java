@@ -0,0 +1,63 @@
+package com.dustwing.metrics;
+
+import java.util.function.IntSupplier;
+
+/**
+ * Instrumentation hooks for the sender, the queue and the policies. Every method does nothing by
+ * default, implement the ones a backend needs.
+ * <p>
+ * Components take an instance through their builders and skip the timing altogether when they have
+ * none, so without a backend the hot path only pays a null check. Implementations are called from
+ * many threads at once and must not block.
+ */
+public interface EmailMetrics {
+
+    /**
+     * One message sent by an EmailSender. A phase that was not reached is 0.
+     *
+     * @param buildNanos    building the MIME message
+     * @param connectNanos  getting a connection, from the pool or a new one
+     * @param transmitNanos writing the message to the connection
+     */
+    default void onSend(long buildNanos, long connectNanos, long transmitNanos, boolean success) {
+    }
+
+    /**
+     * Called once per queue when it is built.
+     *
+     * @param depth items currently waiting in the queue
+     * @return stops reporting the queue, run by the queue when it shuts down
+     */
+    default Runnable registerQueueDepth(IntSupplier depth) {
+        return () -> {
+        };
+    }
+
+    default void onEnqueue() {
+    }
+
+    /**
+     * An add refused because the queue was full, shut down or the notification invalid.
+     */
+    default void onEnqueueRejected() {
+    }
+
+    /**
+     * @param waitNanos time the item spent in the queue
+     */
+    default void onDequeue(long waitNanos) {
+    }
+
+    /**
+     * @param attempt 1 for the first retry
+     * @param reason  failure that caused the retry
+     */
+    default void onRetry(int attempt, Exception reason) {
+    }
+
+    /**
+     * @param policy the validate policy that rejected the email
+     */
+    default void onValidationRejected(Class<?> policy) {
+    }
+}
@@ -0,0 +1,142 @@
+package com.dustwing.metrics.micrometer;
+
+import com.dustwing.metrics.EmailMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Reports to a Micrometer registry. Micrometer is not a dependency of this library, add micrometer-core
+ * to the application to use this class.
+ * <p>
+ * Meters:
+ * <ul>
+ *     <li>{@code email.send.build}, {@code email.send.connect}, {@code email.send.transmit} timers tagged with the outcome</li>
+ *     <li>{@code email.queue.depth} gauge, the sum over every running queue reporting here</li>
+ *     <li>{@code email.queue.enqueued}, {@code email.queue.rejected}, {@code email.queue.dequeued} counters</li>
+ *     <li>{@code email.queue.wait} timer</li>
+ *     <li>{@code email.retry} counter tagged with the reason exception</li>
+ *     <li>{@code email.validation.rejected} counter tagged with the policy</li>
+ * </ul>
+ * Timers publish percentile histograms, so percentiles can be aggregated across instances.
+ */
+public class MicrometerEmailMetrics implements EmailMetrics {
+
+    private final MeterRegistry registry;
+
+    private final Phase success;
+
+    private final Phase failure;
+
+    private final Counter enqueued;
+
+    private final Counter rejected;
+
+    private final Counter dequeued;
+
+    private final Timer queueWait;
+
+    private final List<IntSupplier> depths;
+
+    private final Map<Class<?>, Counter> retries;
+
+    private final Map<Class<?>, Counter> validationRejections;
+
+    public MicrometerEmailMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.success = new Phase(registry, "success");
+        this.failure = new Phase(registry, "failure");
+        this.enqueued = registry.counter("email.queue.enqueued");
+        this.rejected = registry.counter("email.queue.rejected");
+        this.dequeued = registry.counter("email.queue.dequeued");
+        this.queueWait = timer(registry, "email.queue.wait");
+        this.depths = new CopyOnWriteArrayList<>();
+        this.retries = new ConcurrentHashMap<>();
+        this.validationRejections = new ConcurrentHashMap<>();
+
+        Gauge.builder("email.queue.depth", depths, MicrometerEmailMetrics::sum).register(registry);
+    }
+
+    @Override
+    public void onSend(long buildNanos, long connectNanos, long transmitNanos, boolean success) {
+        final Phase phase = success ? this.success : failure;
+        phase.build.record(buildNanos, TimeUnit.NANOSECONDS);
+        //phases that were not reached are not recorded
+        if (connectNanos > 0) {
+            phase.connect.record(connectNanos, TimeUnit.NANOSECONDS);
+        }
+        if (transmitNanos > 0) {
+            phase.transmit.record(transmitNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public Runnable registerQueueDepth(IntSupplier depth) {
+        depths.add(depth);
+        return () -> depths.remove(depth);
+    }
+
+    @Override
+    public void onEnqueue() {
+        enqueued.increment();
+    }
+
+    @Override
+    public void onEnqueueRejected() {
+        rejected.increment();
+    }
+
+    @Override
+    public void onDequeue(long waitNanos) {
+        dequeued.increment();
+        queueWait.record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void onRetry(int attempt, Exception reason) {
+        final Class<?> type = reason == null ? Exception.class : reason.getClass();
+        retries.computeIfAbsent(type, t -> registry.counter("email.retry", "reason", t.getSimpleName()))
+                .increment();
+    }
+
+    @Override
+    public void onValidationRejected(Class<?> policy) {
+        validationRejections.computeIfAbsent(policy, p -> registry.counter("email.validation.rejected", "policy", p.getSimpleName()))
+                .increment();
+    }
+
+    private static Timer timer(MeterRegistry registry, String name, String... tags) {
+        return Timer.builder(name).tags(tags).publishPercentileHistogram().register(registry);
+    }
+
+    private static double sum(List<IntSupplier> depths) {
+        long sum = 0;
+        for (IntSupplier depth : depths) {
+            sum += depth.getAsInt();
+        }
+        return sum;
+    }
+
+    private static final class Phase {
+
+        private final Timer build;
+
+        private final Timer connect;
+
+        private final Timer transmit;
+
+        private Phase(MeterRegistry registry, String outcome) {
+            this.build = timer(registry, "email.send.build", "outcome", outcome);
+            this.connect = timer(registry, "email.send.connect", "outcome", outcome);
+            this.transmit = timer(registry, "email.send.transmit", "outcome", outcome);
+        }
+    }
+}
@@ -1,5 +1,11 @@
 package com.dustwing.policy;
 
+import com.dustwing.concurrent.Schedulers;
+import com.dustwing.metrics.EmailMetrics;
+import com.dustwing.policy.bulkhead.Bulkhead;
+import com.dustwing.policy.bulkhead.BulkheadFullException;
+import com.dustwing.policy.circuit.CircuitBreaker;
+import com.dustwing.policy.circuit.CircuitBreakerOpenException;
 import com.dustwing.policy.retry.RetryPolicy;
 import com.dustwing.policy.validate.IValidatePolicy;
 import com.dustwing.result.Failure;
@@ -8,11 +14,18 @@ import com.dustwing.result.Success;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
 
 import static com.dustwing.policy.retry.RetryPolicy.retry;
+import static com.dustwing.policy.retry.RetryPolicy.retryAsync;
 
 
 public class PolicyEnforcer<T> {
@@ -25,14 +38,26 @@ public class PolicyEnforcer<T> {
 
     private final List<Function<T, Result<T>>> fallBack;
 
+    private final CircuitBreaker circuitBreaker;
+
+    private final Bulkhead bulkhead;
+
+    private final EmailMetrics metrics;
+
     private PolicyEnforcer(
             List<IValidatePolicy<T>> validatePolicies,
             RetryPolicy retryPolicy,
-            List<Function<T, Result<T>>> fallBack
+            List<Function<T, Result<T>>> fallBack,
+            CircuitBreaker circuitBreaker,
+            Bulkhead bulkhead,
+            EmailMetrics metrics
     ) {
         this.validatePolicies = validatePolicies;
         this.retryPolicy = retryPolicy;
         this.fallBack = fallBack;
+        this.circuitBreaker = circuitBreaker;
+        this.bulkhead = bulkhead;
+        this.metrics = metrics;
     }
 
 
@@ -45,18 +70,28 @@ public class PolicyEnforcer<T> {
             if (result instanceof Failure<T> failure) return failure;
         }
 
+        if (retryPolicy != null) {
+            retryPolicy.recordAttempt();
+        }
 
-        var result = f.apply(t);
+        final Function<T, Result<T>> call = guard(f);
+
+        var result = call.apply(t);
         if (result instanceof Success<T> success) {
             return success;
 
         } else if (result instanceof Failure<T> failure) {
 
+            if (isRejected(failure)) {
+                if (fallBack != null) return runFallback(t);
+                return failure;
+            }
+
             if (retryPolicy == null) {
                 return failure;
             }
 
-            var resultRe = retry(retryPolicy, f, t, failure.exception());
+            var resultRe = retry(retryPolicy, call, t, failure.exception());
 
             if (resultRe instanceof Success<T> successRe) {
                 return successRe;
@@ -73,16 +108,180 @@ public class PolicyEnforcer<T> {
 
     }
 
+    /**
+     * Same stages as {@link #run}, but retry delays are scheduled instead of slept, so no thread is held
+     * while a message waits for its next attempt. Attempts run on {@link Schedulers#blocking()}.
+     */
     public CompletableFuture<Result<T>> runAsync(
             Function<T, Result<T>> f, T t
     ) {
+        return runAsync(f, t, Schedulers.blocking(), null);
+    }
 
-        return CompletableFuture.supplyAsync(() ->
-                run(f, t)
-        );
+    public CompletableFuture<Result<T>> runAsync(
+            Function<T, Result<T>> f, T t, Executor executor
+    ) {
+        return runAsync(f, t, executor, null);
+    }
 
+    public CompletableFuture<Result<T>> runAsync(
+            Function<T, Result<T>> f, T t, Duration timeout
+    ) {
+        return runAsync(f, t, Schedulers.blocking(), timeout);
     }
 
+    /**
+     * @param executor runs the attempts, it should allow blocking I/O
+     * @param timeout  for the whole call including retries, null for none. When it passes the future
+     *                 completes with a Failure holding a {@link TimeoutException}, the running attempt is
+     *                 interrupted and no further retries are made
+     */
+    public CompletableFuture<Result<T>> runAsync(
+            Function<T, Result<T>> f, T t, Executor executor, Duration timeout
+    ) {
+
+        if (timeout == null) {
+            return CompletableFuture
+                    .supplyAsync(() -> attemptAsync(guard(f), t, executor), executor)
+                    .thenCompose(Function.identity());
+        }
+
+        final CancellableCall<T> call = new CancellableCall<>(guard(f));
+        final CompletableFuture<Result<T>> promise = new CompletableFuture<>();
+
+        CompletableFuture
+                .supplyAsync(() -> call.track(attemptAsync(call, t, executor)), executor)
+                .thenCompose(Function.identity())
+                .whenComplete((result, e) -> {
+                    if (e == null) {
+                        promise.complete(result);
+                    } else {
+                        promise.completeExceptionally(e);
+                    }
+                });
+
+        final ScheduledFuture<?> timer = Schedulers.shared().schedule(() -> {
+            if (promise.complete(new Failure<>(t, new TimeoutException("Timed out after " + timeout)))) {
+                call.cancel();
+            }
+        }, timeout.toNanos(), TimeUnit.NANOSECONDS);
+
+        promise.whenComplete((result, e) -> {
+            timer.cancel(false);
+            if (promise.isCancelled()) {
+                call.cancel();
+            }
+        });
+
+        return promise;
+    }
+
+    /**
+     * @param call already guarded
+     */
+    private CompletableFuture<Result<T>> attemptAsync(
+            Function<T, Result<T>> call, T t, Executor executor
+    ) {
+
+        if (validatePolicies != null) {
+            var result = validate(t);
+            if (result instanceof Failure<T>) return CompletableFuture.completedFuture(result);
+        }
+
+        if (retryPolicy != null) {
+            retryPolicy.recordAttempt();
+        }
+
+        var result = call.apply(t);
+        if (result instanceof Success<T>) {
+            return CompletableFuture.completedFuture(result);
+        }
+
+        final Failure<T> failure = (Failure<T>) result;
+
+        if (isRejected(failure)) {
+            return CompletableFuture.completedFuture(fallBack != null ? runFallback(t) : failure);
+        }
+
+        if (retryPolicy == null) {
+            return CompletableFuture.completedFuture(failure);
+        }
+
+        final CompletableFuture<Result<T>> retried = retryAsync(retryPolicy, call, t, failure.exception(), Schedulers.shared(), executor);
+
+        final CompletableFuture<Result<T>> dependent = retried.thenApplyAsync(resultRe -> {
+            if (resultRe instanceof Failure<T> && fallBack != null) return runFallback(t);
+            return resultRe;
+        }, executor);
+
+        //cancelling a dependent does not reach its source on its own
+        dependent.whenComplete((r, e) -> {
+            if (dependent.isCancelled()) {
+                retried.cancel(false);
+            }
+        });
+
+        return dependent;
+    }
+
+    /**
+     * Every attempt, retries included, takes a bulkhead permit and goes through the circuit breaker
+     * when there are ones. The permit is only held for the attempt, not while waiting for a retry.
+     */
+    private Function<T, Result<T>> guard(Function<T, Result<T>> f) {
+
+        if (circuitBreaker == null && bulkhead == null) {
+            return f;
+        }
+
+        final Function<T, Result<T>> broken = circuitBreaker == null ? f : t -> {
+
+            final CircuitBreaker.Period permit = circuitBreaker.tryAcquirePermission();
+            if (permit == null) {
+                return new Failure<>(t, new CircuitBreakerOpenException("Circuit breaker is open"));
+            }
+
+            final long start = System.nanoTime();
+            boolean success = false;
+            try {
+                final Result<T> result = f.apply(t);
+                success = result instanceof Success<T>;
+                return result;
+            } finally {
+                circuitBreaker.onResult(permit, success, System.nanoTime() - start);
+            }
+        };
+
+        if (bulkhead == null) {
+            return broken;
+        }
+
+        return t -> {
+
+            try {
+                if (!bulkhead.tryAcquire()) {
+                    return new Failure<>(t, new BulkheadFullException("Bulkhead is full"));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new Failure<>(t, new BulkheadFullException("Interrupted waiting for bulkhead", e));
+            }
+
+            try {
+                return broken.apply(t);
+            } finally {
+                bulkhead.release();
+            }
+        };
+    }
+
+    /**
+     * Failures where the call was never made, these skip the retries.
+     */
+    private static boolean isRejected(Failure<?> failure) {
+        return failure.exception() instanceof CircuitBreakerOpenException
+                || failure.exception() instanceof BulkheadFullException;
+    }
 
     private Result<T> validate(final T t) {
 
@@ -91,6 +290,9 @@ public class PolicyEnforcer<T> {
 
             var result = iValidatePolicy.validate(t);
             if (result instanceof Failure<T> failure) {
+                if (metrics != null) {
+                    metrics.onValidationRejected(iValidatePolicy.getClass());
+                }
                 return failure;
             }
 
@@ -105,13 +307,13 @@ public class PolicyEnforcer<T> {
 
         logger.info("Starting fallback ...");
 
-        for (Function<T, Result<T>> trFunction : fallBack) {
+        for (int i = 0; i < fallBack.size(); i++) {
 
-            var result = trFunction.apply(t);
+            var result = fallBack.get(i).apply(t);
             if (result instanceof Success<T> success) {
                 return success;
             } else {
-                logger.error("Fall Back failure index[{}]", fallBack.indexOf(trFunction));
+                logger.error("Fall Back failure index[{}]", i);
 
             }
         }
@@ -119,6 +321,75 @@ public class PolicyEnforcer<T> {
         return new Failure<>(t, new PolicyEnforcerException("All fallback methods failed..."));
     }
 
+    /**
+     * Remembers the thread running an attempt so a timed out call can interrupt it. Once cancelled no new
+     * attempt starts and the pending retries are cancelled.
+     */
+    private static final class CancellableCall<T> implements Function<T, Result<T>> {
+
+        private final Function<T, Result<T>> f;
+
+        private final Object lock = new Object();
+
+        private Thread runner;
+
+        private boolean cancelled;
+
+        private volatile CompletableFuture<Result<T>> pending;
+
+        private CancellableCall(Function<T, Result<T>> f) {
+            this.f = f;
+        }
+
+        @Override
+        public Result<T> apply(T t) {
+
+            synchronized (lock) {
+                if (cancelled) {
+                    return new Failure<>(t, new CancellationException("Call was cancelled"));
+                }
+                runner = Thread.currentThread();
+            }
+
+            try {
+                return f.apply(t);
+            } finally {
+                synchronized (lock) {
+                    runner = null;
+                    //do not leak an interrupt meant for this attempt to the next task of the thread
+                    if (cancelled) {
+                        Thread.interrupted();
+                    }
+                }
+            }
+        }
+
+        private CompletableFuture<Result<T>> track(CompletableFuture<Result<T>> future) {
+            pending = future;
+            synchronized (lock) {
+                if (cancelled) {
+                    future.cancel(false);
+                }
+            }
+            return future;
+        }
+
+        private void cancel() {
+
+            synchronized (lock) {
+                cancelled = true;
+                if (runner != null) {
+                    runner.interrupt();
+                }
+            }
+
+            final CompletableFuture<Result<T>> future = pending;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
     public static <T, R> PolicyEnforcerBuilder<T, R> builder() {
         return new PolicyEnforcerBuilder<>();
     }
@@ -127,6 +398,9 @@ public class PolicyEnforcer<T> {
         private List<IValidatePolicy<T>> validatePolicies;
         private RetryPolicy retryPolicy;
         private List<Function<T, Result<T>>> fallBack;
+        private CircuitBreaker circuitBreaker;
+        private Bulkhead bulkhead;
+        private EmailMetrics metrics;
 
         public PolicyEnforcerBuilder<T, R> withValidations(List<IValidatePolicy<T>> validatePolicies) {
             this.validatePolicies = validatePolicies;
@@ -143,8 +417,26 @@ public class PolicyEnforcer<T> {
             return this;
         }
 
+        public PolicyEnforcerBuilder<T, R> circuitBreaker(CircuitBreaker circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        public PolicyEnforcerBuilder<T, R> bulkhead(Bulkhead bulkhead) {
+            this.bulkhead = bulkhead;
+            return this;
+        }
+
+        /**
+         * Reports rejections by the validate policies, retries are reported by the retry policy itself.
+         */
+        public PolicyEnforcerBuilder<T, R> withMetrics(EmailMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
         public PolicyEnforcer<T> build() {
-            return new PolicyEnforcer<>(validatePolicies, retryPolicy, fallBack);
+            return new PolicyEnforcer<>(validatePolicies, retryPolicy, fallBack, circuitBreaker, bulkhead, metrics);
         }
     }
 
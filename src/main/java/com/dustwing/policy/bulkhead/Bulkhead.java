@@ -0,0 +1,109 @@
+package com.dustwing.policy.bulkhead;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps the calls running at once against a downstream relay, can be shared in multiple PolicyEnforcer
+ * <p>
+ * A call over {@code maxConcurrentCalls} waits up to {@code maxWait} for a permit, with at most
+ * {@code maxWaiting} calls waiting at a time. Calls that cannot wait are rejected and counted.
+ */
+public class Bulkhead {
+
+    private final Semaphore permits;
+
+    private final int maxWaiting;
+
+    private final long maxWaitNanos;
+
+    private final AtomicInteger waiting;
+
+    private final LongAdder rejected;
+
+    private final LongAdder timedOut;
+
+    /**
+     * No waiting, calls over the limit are rejected straight away.
+     */
+    public Bulkhead(int maxConcurrentCalls) {
+        this(maxConcurrentCalls, 0, Duration.ZERO);
+    }
+
+    public Bulkhead(int maxConcurrentCalls, int maxWaiting, Duration maxWait) {
+
+        if (maxConcurrentCalls < 1) {
+            throw new IllegalArgumentException("maxConcurrentCalls must be positive");
+        }
+        if (maxWaiting < 0) {
+            throw new IllegalArgumentException("maxWaiting must not be negative");
+        }
+
+        this.permits = new Semaphore(maxConcurrentCalls);
+        this.maxWaiting = maxWaiting;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.waiting = new AtomicInteger();
+        this.rejected = new LongAdder();
+        this.timedOut = new LongAdder();
+    }
+
+    /**
+     * @return true when a permit was taken, it must be given back with {@link #release()}
+     */
+    public boolean tryAcquire() throws InterruptedException {
+
+        if (permits.tryAcquire()) {
+            return true;
+        }
+
+        if (maxWaiting == 0 || maxWaitNanos <= 0) {
+            rejected.increment();
+            return false;
+        }
+
+        if (waiting.incrementAndGet() > maxWaiting) {
+            waiting.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+
+        try {
+            if (permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+            timedOut.increment();
+            return false;
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    /**
+     * @return calls rejected because the wait queue was full or waiting is disabled
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return calls rejected after waiting {@code maxWait} for a permit
+     */
+    public long getTimedOut() {
+        return timedOut.sum();
+    }
+}
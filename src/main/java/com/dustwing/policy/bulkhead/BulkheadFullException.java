@@ -0,0 +1,19 @@
+package com.dustwing.policy.bulkhead;
+
+public class BulkheadFullException extends Exception {
+    public BulkheadFullException() {
+        super();
+    }
+
+    public BulkheadFullException(String message) {
+        super(message);
+    }
+
+    public BulkheadFullException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public BulkheadFullException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,362 @@
+package com.dustwing.policy.circuit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Circuit breaker can be shared in multiple PolicyEnforcer that call the same relay
+ * <p>
+ * While CLOSED every call goes through and its outcome is counted in a sliding time window. Once the window
+ * holds {@code minimumCalls} calls and the failure rate or the slow call rate reaches its threshold the
+ * breaker OPENs and calls are refused without touching the network. After {@code waitInOpen} it goes
+ * HALF_OPEN and lets {@code permittedCallsInHalfOpen} trial calls through: all of them succeeding closes it,
+ * any failure opens it again.
+ * <p>
+ * Every stay in a state is a {@link Period}, replaced on each transition. A call is tagged with the period
+ * it started in and its outcome only counts while that period is current, so a call started while CLOSED
+ * that ends after the breaker opened is not taken for a half open trial. A call on the success path costs
+ * a few reads and one counter increment.
+ */
+public class CircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final double failureRateThreshold;
+
+    private final double slowCallRateThreshold;
+
+    private final long slowCallNanos;
+
+    private final int minimumCalls;
+
+    private final long waitInOpenNanos;
+
+    private final int permittedCallsInHalfOpen;
+
+    private final SlidingWindow window;
+
+    private final AtomicReference<Period> period = new AtomicReference<>(Period.closed());
+
+    private CircuitBreaker(
+            double failureRateThreshold,
+            double slowCallRateThreshold,
+            Duration slowCallDuration,
+            int minimumCalls,
+            Duration window,
+            int windowBuckets,
+            Duration waitInOpen,
+            int permittedCallsInHalfOpen
+    ) {
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallNanos = slowCallDuration.toNanos();
+        this.minimumCalls = minimumCalls;
+        this.window = new SlidingWindow(window.toNanos(), windowBuckets);
+        this.waitInOpenNanos = waitInOpen.toNanos();
+        this.permittedCallsInHalfOpen = permittedCallsInHalfOpen;
+    }
+
+    public State getState() {
+        return period.get().state;
+    }
+
+    /**
+     * @return the period the call starts in, to hand to {@link #onResult}, null when the call must not be made
+     */
+    public Period tryAcquirePermission() {
+
+        Period current = period.get();
+
+        if (current.state == State.OPEN) {
+            if (System.nanoTime() - current.openedAt < waitInOpenNanos) {
+                return null;
+            }
+            if (period.compareAndSet(current, Period.halfOpen(permittedCallsInHalfOpen))) {
+                logger.info("Circuit breaker half open");
+            }
+            current = period.get();
+        }
+
+        if (current.state == State.CLOSED) {
+            return current;
+        }
+
+        if (current.state == State.OPEN) {
+            return null;
+        }
+
+        //half open, hand out the trial permits
+        int permits;
+        do {
+            permits = current.halfOpenPermits.get();
+            if (permits <= 0) {
+                return null;
+            }
+        } while (!current.halfOpenPermits.compareAndSet(permits, permits - 1));
+
+        return current;
+    }
+
+    /**
+     * Records the outcome of a call made after {@link #tryAcquirePermission()} returned {@code started}.
+     * Ignored when the breaker has changed state since.
+     */
+    public void onResult(Period started, boolean success, long durationNanos) {
+
+        if (started != period.get()) {
+            return;
+        }
+
+        final boolean slow = durationNanos >= slowCallNanos;
+
+        if (started.state == State.HALF_OPEN) {
+            if (!success || slow) {
+                open(started);
+            } else if (started.halfOpenSuccesses.incrementAndGet() >= permittedCallsInHalfOpen
+                    && period.compareAndSet(started, Period.closed())) {
+                window.reset();
+                logger.info("Circuit breaker closed");
+            }
+            return;
+        }
+
+        if (started.state != State.CLOSED) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        window.record(now, success, slow);
+
+        final SlidingWindow.Snapshot snapshot = window.snapshot(now);
+        if (snapshot.calls() < minimumCalls) {
+            return;
+        }
+
+        if (snapshot.failures() >= failureRateThreshold * snapshot.calls()
+                || snapshot.slowCalls() >= slowCallRateThreshold * snapshot.calls()) {
+            open(started);
+        }
+    }
+
+    /**
+     * Only the thread that moves the breaker out of {@code from} sets the open deadline.
+     */
+    private void open(Period from) {
+        if (period.compareAndSet(from, Period.open(System.nanoTime()))) {
+            logger.warn("Circuit breaker open");
+        }
+    }
+
+    public static CircuitBreakerBuilder builder() {
+        return new CircuitBreakerBuilder();
+    }
+
+    public static class CircuitBreakerBuilder {
+        private double failureRateThreshold = 0.5;
+        private double slowCallRateThreshold = 1.0;
+        private Duration slowCallDuration = Duration.ofSeconds(60);
+        private int minimumCalls = 10;
+        private Duration window = Duration.ofSeconds(60);
+        private int windowBuckets = 10;
+        private Duration waitInOpen = Duration.ofSeconds(30);
+        private int permittedCallsInHalfOpen = 3;
+
+        /**
+         * @param failureRateThreshold between 0 and 1
+         */
+        public CircuitBreakerBuilder failureRateThreshold(double failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+            return this;
+        }
+
+        /**
+         * @param slowCallDuration      calls taking at least this long count as slow
+         * @param slowCallRateThreshold between 0 and 1
+         */
+        public CircuitBreakerBuilder slowCalls(Duration slowCallDuration, double slowCallRateThreshold) {
+            this.slowCallDuration = slowCallDuration;
+            this.slowCallRateThreshold = slowCallRateThreshold;
+            return this;
+        }
+
+        public CircuitBreakerBuilder minimumCalls(int minimumCalls) {
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        /**
+         * @param buckets the window slides one bucket at a time
+         */
+        public CircuitBreakerBuilder window(Duration window, int buckets) {
+            this.window = window;
+            this.windowBuckets = buckets;
+            return this;
+        }
+
+        public CircuitBreakerBuilder waitInOpen(Duration waitInOpen) {
+            this.waitInOpen = waitInOpen;
+            return this;
+        }
+
+        public CircuitBreakerBuilder permittedCallsInHalfOpen(int permittedCallsInHalfOpen) {
+            this.permittedCallsInHalfOpen = permittedCallsInHalfOpen;
+            return this;
+        }
+
+        public CircuitBreaker build() {
+
+            if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+                throw new IllegalArgumentException("failureRateThreshold must be in (0, 1]");
+            }
+            if (slowCallRateThreshold <= 0 || slowCallRateThreshold > 1) {
+                throw new IllegalArgumentException("slowCallRateThreshold must be in (0, 1]");
+            }
+            if (minimumCalls < 1) {
+                throw new IllegalArgumentException("minimumCalls must be positive");
+            }
+            if (windowBuckets < 1 || window.toNanos() < windowBuckets) {
+                throw new IllegalArgumentException("window must have at least one bucket");
+            }
+            if (permittedCallsInHalfOpen < 1) {
+                throw new IllegalArgumentException("permittedCallsInHalfOpen must be positive");
+            }
+
+            return new CircuitBreaker(
+                    failureRateThreshold,
+                    slowCallRateThreshold,
+                    slowCallDuration,
+                    minimumCalls,
+                    window,
+                    windowBuckets,
+                    waitInOpen,
+                    permittedCallsInHalfOpen
+            );
+        }
+    }
+
+    /**
+     * One stay in a state, the tag of the calls that start in it.
+     */
+    public static final class Period {
+
+        private final State state;
+
+        private final long openedAt;
+
+        private final AtomicInteger halfOpenPermits;
+
+        private final AtomicInteger halfOpenSuccesses;
+
+        private Period(State state, long openedAt, int halfOpenPermits) {
+            this.state = state;
+            this.openedAt = openedAt;
+            this.halfOpenPermits = new AtomicInteger(halfOpenPermits);
+            this.halfOpenSuccesses = new AtomicInteger();
+        }
+
+        private static Period closed() {
+            return new Period(State.CLOSED, 0, 0);
+        }
+
+        private static Period open(long openedAt) {
+            return new Period(State.OPEN, openedAt, 0);
+        }
+
+        private static Period halfOpen(int permits) {
+            return new Period(State.HALF_OPEN, 0, permits);
+        }
+
+        public State getState() {
+            return state;
+        }
+    }
+
+    /**
+     * Ring of time buckets. A bucket is reset by the first call that lands in it in a new period;
+     * counts racing with that reset may be lost, which only makes the rates approximate.
+     */
+    private static final class SlidingWindow {
+
+        private final long bucketNanos;
+
+        private final Bucket[] buckets;
+
+        private SlidingWindow(long windowNanos, int bucketCount) {
+            this.bucketNanos = windowNanos / bucketCount;
+            this.buckets = new Bucket[bucketCount];
+            for (int i = 0; i < bucketCount; i++) {
+                buckets[i] = new Bucket();
+            }
+        }
+
+        private void record(long now, boolean success, boolean slow) {
+
+            final long epoch = now / bucketNanos;
+            final Bucket bucket = buckets[(int) Math.floorMod(epoch, (long) buckets.length)];
+
+            final long bucketEpoch = bucket.epoch.get();
+            if (bucketEpoch != epoch && bucket.epoch.compareAndSet(bucketEpoch, epoch)) {
+                bucket.calls.set(0);
+                bucket.failures.set(0);
+                bucket.slowCalls.set(0);
+            }
+
+            bucket.calls.incrementAndGet();
+            if (!success) {
+                bucket.failures.incrementAndGet();
+            }
+            if (slow) {
+                bucket.slowCalls.incrementAndGet();
+            }
+        }
+
+        private Snapshot snapshot(long now) {
+
+            final long epoch = now / bucketNanos;
+            int calls = 0;
+            int failures = 0;
+            int slowCalls = 0;
+
+            for (Bucket bucket : buckets) {
+                if (epoch - bucket.epoch.get() < buckets.length) {
+                    calls += bucket.calls.get();
+                    failures += bucket.failures.get();
+                    slowCalls += bucket.slowCalls.get();
+                }
+            }
+
+            return new Snapshot(calls, failures, slowCalls);
+        }
+
+        private void reset() {
+            for (Bucket bucket : buckets) {
+                bucket.epoch.set(Long.MIN_VALUE);
+                bucket.calls.set(0);
+                bucket.failures.set(0);
+                bucket.slowCalls.set(0);
+            }
+        }
+
+        private record Snapshot(int calls, int failures, int slowCalls) {
+
+        }
+
+        private static final class Bucket {
+            private final AtomicLong epoch = new AtomicLong(Long.MIN_VALUE);
+            private final AtomicInteger calls = new AtomicInteger();
+            private final AtomicInteger failures = new AtomicInteger();
+            private final AtomicInteger slowCalls = new AtomicInteger();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.dustwing.policy.circuit;
+
+public class CircuitBreakerOpenException extends Exception {
+    public CircuitBreakerOpenException() {
+        super();
+    }
+
+    public CircuitBreakerOpenException(String message) {
+        super(message);
+    }
+
+    public CircuitBreakerOpenException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public CircuitBreakerOpenException(Throwable cause) {
+        super(cause);
+    }
+}
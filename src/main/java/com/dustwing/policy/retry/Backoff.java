@@ -0,0 +1,52 @@
+package com.dustwing.policy.retry;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How the delay grows between retries. All delays are capped by the policy's max delay.
+ */
+public enum Backoff {
+
+    /**
+     * The same delay before every retry.
+     */
+    FIXED {
+        @Override
+        long nextDelayNanos(long baseNanos, long maxNanos, int attempt, long previousNanos) {
+            return Math.min(baseNanos, maxNanos);
+        }
+    },
+
+    /**
+     * {@code base * 2^(attempt - 1)}.
+     */
+    EXPONENTIAL {
+        @Override
+        long nextDelayNanos(long baseNanos, long maxNanos, int attempt, long previousNanos) {
+            final double delay = baseNanos * Math.pow(2, attempt - 1);
+            return delay >= maxNanos ? maxNanos : (long) delay;
+        }
+    },
+
+    /**
+     * Random delay between {@code base} and three times the previous delay, so messages that failed
+     * together spread out instead of retrying in lockstep.
+     */
+    DECORRELATED_JITTER {
+        @Override
+        long nextDelayNanos(long baseNanos, long maxNanos, int attempt, long previousNanos) {
+            final long previous = Math.max(previousNanos, baseNanos);
+            final long upper = previous > maxNanos / 3 ? maxNanos : previous * 3;
+            if (upper <= baseNanos) {
+                return Math.min(baseNanos, maxNanos);
+            }
+            return Math.min(ThreadLocalRandom.current().nextLong(baseNanos, upper), maxNanos);
+        }
+    };
+
+    /**
+     * @param attempt       1 for the first retry
+     * @param previousNanos delay used before the previous retry, 0 before the first one
+     */
+    abstract long nextDelayNanos(long baseNanos, long maxNanos, int attempt, long previousNanos);
+}
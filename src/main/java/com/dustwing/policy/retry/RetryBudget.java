@@ -0,0 +1,80 @@
+package com.dustwing.policy.retry;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps retries to a fraction of first attempts, shared by every {@link RetryPolicy} it is given to.
+ * <p>
+ * Every first attempt deposits {@code retryRatio} tokens, every retry withdraws one. The balance starts at,
+ * and never grows past, {@code maxBalance}, which is the burst of retries allowed when traffic is low.
+ * During an outage retries stop once the balance is spent instead of multiplying the load on the relay.
+ */
+public class RetryBudget {
+
+    //tokens are kept in thousandths so fractional ratios need no floating point
+    private static final long SCALE = 1000;
+
+    private final long deposit;
+
+    private final long maxBalance;
+
+    private final AtomicLong balance;
+
+    private final LongAdder granted = new LongAdder();
+
+    private final LongAdder denied = new LongAdder();
+
+    /**
+     * @param retryRatio retries allowed per first attempt, e.g. 0.1 for 10%
+     * @param maxBalance most retries that can be banked
+     */
+    public RetryBudget(double retryRatio, int maxBalance) {
+
+        if (retryRatio < 0) {
+            throw new IllegalArgumentException("retryRatio cannot be negative");
+        }
+        if (maxBalance < 0) {
+            throw new IllegalArgumentException("maxBalance cannot be negative");
+        }
+
+        this.deposit = Math.round(retryRatio * SCALE);
+        this.maxBalance = maxBalance * SCALE;
+        this.balance = new AtomicLong(this.maxBalance);
+    }
+
+    public void recordAttempt() {
+        long current;
+        do {
+            current = balance.get();
+            if (current >= maxBalance) {
+                return;
+            }
+        } while (!balance.compareAndSet(current, Math.min(maxBalance, current + deposit)));
+    }
+
+    /**
+     * @return false when the budget is spent and the retry must not be made
+     */
+    public boolean tryAcquire() {
+        long current;
+        do {
+            current = balance.get();
+            if (current < SCALE) {
+                denied.increment();
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - SCALE));
+
+        granted.increment();
+        return true;
+    }
+
+    public long getGranted() {
+        return granted.sum();
+    }
+
+    public long getDenied() {
+        return denied.sum();
+    }
+}
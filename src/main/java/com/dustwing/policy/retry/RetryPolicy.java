@@ -1,12 +1,20 @@
 package com.dustwing.policy.retry;
 
+import com.dustwing.concurrent.Schedulers;
+import com.dustwing.metrics.EmailMetrics;
 import com.dustwing.result.Failure;
 import com.dustwing.result.Result;
 import com.dustwing.result.Success;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
@@ -14,6 +22,9 @@ public class RetryPolicy {
 
     private static final Logger logger = LoggerFactory.getLogger(RetryPolicy.class);
 
+    //guards against cause cycles
+    private static final int MAX_CAUSE_DEPTH = 16;
+
     private final TimeUnit timeUnit;
 
     private final long delay;
@@ -21,11 +32,59 @@ public class RetryPolicy {
     private final int maxRetries;
     private final List<Class<? extends Exception>> handle;
 
+    private final boolean handleCauses;
+
+    //whether an exception type is one of, or a subtype of, the handled types; computed once per type
+    private final ClassValue<Boolean> handled = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            for (Class<? extends Exception> handledType : handle) {
+                if (handledType.isAssignableFrom(type)) {
+                    return Boolean.TRUE;
+                }
+            }
+            return Boolean.FALSE;
+        }
+    };
+
+    private final Backoff backoff;
+
+    private final long maxDelayNanos;
+
+    //0 means no deadline
+    private final long deadlineNanos;
+
+    private final RetryBudget budget;
+
+    private final EmailMetrics metrics;
+
     public RetryPolicy(TimeUnit timeUnit, long delay, int maxRetries, List<Class<? extends Exception>> handle) {
+        this(timeUnit, delay, maxRetries, handle, false, Backoff.FIXED, null, null, null, null);
+    }
+
+    private RetryPolicy(
+            TimeUnit timeUnit,
+            long delay,
+            int maxRetries,
+            List<Class<? extends Exception>> handle,
+            boolean handleCauses,
+            Backoff backoff,
+            Duration maxDelay,
+            Duration deadline,
+            RetryBudget budget,
+            EmailMetrics metrics
+    ) {
         this.timeUnit = timeUnit;
         this.delay = delay;
         this.maxRetries = maxRetries;
-        this.handle = handle;
+        //copied so the cached decisions cannot go stale
+        this.handle = handle == null ? null : List.copyOf(handle);
+        this.handleCauses = handleCauses;
+        this.backoff = backoff;
+        this.maxDelayNanos = maxDelay == null ? Long.MAX_VALUE : maxDelay.toNanos();
+        this.deadlineNanos = deadline == null ? 0 : deadline.toNanos();
+        this.budget = budget;
+        this.metrics = metrics;
     }
 
     public TimeUnit getTimeUnit() {
@@ -44,6 +103,54 @@ public class RetryPolicy {
         return handle;
     }
 
+    public Backoff getBackoff() {
+        return backoff;
+    }
+
+    public RetryBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Counts a first attempt towards the retry budget, called by the caller before the first try.
+     */
+    public void recordAttempt() {
+        if (budget != null) {
+            budget.recordAttempt();
+        }
+    }
+
+    /**
+     * @param attempt       1 for the first retry
+     * @param previousNanos delay before the previous retry, 0 before the first one
+     */
+    long nextDelayNanos(int attempt, long previousNanos) {
+        final long baseNanos = timeUnit == null ? 0 : timeUnit.toNanos(delay);
+        return backoff.nextDelayNanos(baseNanos, maxDelayNanos, attempt, previousNanos);
+    }
+
+    private void recordRetry(int attempt, Exception reason) {
+        if (metrics != null) {
+            metrics.onRetry(attempt, reason);
+        }
+    }
+
+    /**
+     * @return why the next retry must not be made, or null when it may go ahead
+     */
+    RetryPolicyException denyRetry(long startNanos, long delayNanos) {
+
+        if (deadlineNanos > 0 && System.nanoTime() + delayNanos - startNanos > deadlineNanos) {
+            return new RetryPolicyException("Failure: Retry deadline reached...");
+        }
+
+        if (budget != null && !budget.tryAcquire()) {
+            return new RetryPolicyException("Failure: Retry budget exhausted...");
+        }
+
+        return null;
+    }
+
 
     public static <T> Result<T> retry(RetryPolicy retryPolicy, Function<T, Result<T>> f, T t, Exception ex) {
 
@@ -54,28 +161,70 @@ public class RetryPolicy {
 
 
         if (retryPolicy.getMaxRetries() == 0) {
-            return retryForEver(retryPolicy, f, t);
+            return retryForEver(retryPolicy, f, t, ex);
         }
 
-        return retryMaxTries(retryPolicy, f, t);
+        return retryMaxTries(retryPolicy, f, t, ex);
+
+    }
+
+
+    /**
+     * Same as {@link #retry} without holding a thread during the delays: each attempt is scheduled on
+     * {@link Schedulers#shared()} and run on {@link Schedulers#blocking()}.
+     */
+    public static <T> CompletableFuture<Result<T>> retryAsync(RetryPolicy retryPolicy, Function<T, Result<T>> f, T t, Exception ex) {
+        return retryAsync(retryPolicy, f, t, ex, Schedulers.shared(), Schedulers.blocking());
+    }
+
+    /**
+     * @param scheduler only used to wait out the delays
+     * @param executor  runs the attempts
+     */
+    public static <T> CompletableFuture<Result<T>> retryAsync(
+            RetryPolicy retryPolicy,
+            Function<T, Result<T>> f,
+            T t,
+            Exception ex,
+            ScheduledExecutorService scheduler,
+            Executor executor
+    ) {
+
+        if (!handle(retryPolicy, ex)) {
+            return CompletableFuture.completedFuture(new Failure<>(t, ex));
+        }
 
+        final AsyncRetry<T> retry = new AsyncRetry<>(retryPolicy, f, t, ex, scheduler, executor);
+        retry.scheduleNext();
+        return retry.promise;
     }
 
+    private static <T> Result<T> retryMaxTries(RetryPolicy retryPolicy, Function<T, Result<T>> f, T t, Exception ex) {
 
-    private static <T> Result<T> retryMaxTries(RetryPolicy retryPolicy, Function<T, Result<T>> f, T t) {
+        final long start = System.nanoTime();
+        long delayNanos = 0;
+        Exception last = ex;
 
         int tries = 0;
         while (tries < retryPolicy.getMaxRetries()) {
 
+            delayNanos = retryPolicy.nextDelayNanos(tries + 1, delayNanos);
+
+            final RetryPolicyException denied = retryPolicy.denyRetry(start, delayNanos);
+            if (denied != null) {
+                return new Failure<>(t, denied);
+            }
+
             //delay
             try {
-                retryPolicy.getTimeUnit().sleep(retryPolicy.getDelay());
+                TimeUnit.NANOSECONDS.sleep(delayNanos);
             } catch (InterruptedException e) {
                 return new Failure<>(t, new RetryPolicyException("Retry policy delay exception", e));
             }
 
             logger.debug("retrying..");
             tries++;
+            retryPolicy.recordRetry(tries, last);
 
             var result = f.apply(t);
             if (result instanceof Success<T> success) {
@@ -85,22 +234,37 @@ public class RetryPolicy {
                 if (!handle(retryPolicy, failure.exception())) {
                     return failure;
                 }
+                last = failure.exception();
             }
         }
 
         return new Failure<>(t, new RetryPolicyException("Failure: Max retries reached..."));
     }
 
-    private static <T> Result<T> retryForEver(RetryPolicy retryPolicy, Function<T, Result<T>> f, T t) {
+    private static <T> Result<T> retryForEver(RetryPolicy retryPolicy, Function<T, Result<T>> f, T t, Exception ex) {
+
+        final long start = System.nanoTime();
+        long delayNanos = 0;
+        int tries = 0;
+        Exception last = ex;
 
         while (true) {
+
+            delayNanos = retryPolicy.nextDelayNanos(++tries, delayNanos);
+
+            final RetryPolicyException denied = retryPolicy.denyRetry(start, delayNanos);
+            if (denied != null) {
+                return new Failure<>(t, denied);
+            }
+
             try {
-                retryPolicy.getTimeUnit().sleep(retryPolicy.getDelay());
+                TimeUnit.NANOSECONDS.sleep(delayNanos);
             } catch (InterruptedException e) {
                 return new Failure<>(t, new RetryPolicyException("Retry policy delay exception", e));
             }
 
             logger.debug("retrying..");
+            retryPolicy.recordRetry(tries, last);
 
             var result = f.apply(t);
             if (result instanceof Success<T> success) {
@@ -110,6 +274,7 @@ public class RetryPolicy {
                 if (!handle(retryPolicy, failure.exception())) {
                     return failure;
                 }
+                last = failure.exception();
             }
         }
 
@@ -122,15 +287,133 @@ public class RetryPolicy {
             return false;
         }
 
-        boolean found = retryPolicy.getHandle().stream().anyMatch(ex.getClass()::equals);
+        Throwable current = ex;
+        for (int depth = 0; current != null && depth < MAX_CAUSE_DEPTH; depth++) {
 
-        if (!found) {
-            return false;
+            if (retryPolicy.handled.get(current.getClass())) {
+                logger.debug("Handling exception {}", ex.getMessage());
+                return true;
+            }
+
+            if (!retryPolicy.handleCauses || current.getCause() == current) {
+                break;
+            }
+
+            current = current.getCause();
+        }
+
+        return false;
+    }
+
+    /**
+     * State of one message going through {@link #retryAsync}, moved between the scheduler and the executor.
+     */
+    private static final class AsyncRetry<T> {
+        private final RetryPolicy retryPolicy;
+        private final Function<T, Result<T>> f;
+        private final T t;
+        private final ScheduledExecutorService scheduler;
+        private final Executor executor;
+        private final CompletableFuture<Result<T>> promise = new CompletableFuture<>();
+        private final long startNanos = System.nanoTime();
+        private int tries;
+        private long delayNanos;
+        private Exception last;
+        private volatile ScheduledFuture<?> scheduled;
+
+        private AsyncRetry(
+                RetryPolicy retryPolicy,
+                Function<T, Result<T>> f,
+                T t,
+                Exception ex,
+                ScheduledExecutorService scheduler,
+                Executor executor
+        ) {
+            this.retryPolicy = retryPolicy;
+            this.f = f;
+            this.t = t;
+            this.last = ex;
+            this.scheduler = scheduler;
+            this.executor = executor;
+
+            //a cancelled promise takes the waiting retry with it
+            promise.whenComplete((result, e) -> {
+                final ScheduledFuture<?> next = scheduled;
+                if (promise.isCancelled() && next != null) {
+                    next.cancel(false);
+                }
+            });
         }
 
-        logger.debug("Handling exception" + ex.getMessage());
+        private void scheduleNext() {
+
+            if (retryPolicy.getMaxRetries() != 0 && tries >= retryPolicy.getMaxRetries()) {
+                promise.complete(new Failure<>(t, new RetryPolicyException("Failure: Max retries reached...")));
+                return;
+            }
+
+            delayNanos = retryPolicy.nextDelayNanos(tries + 1, delayNanos);
+
+            final RetryPolicyException denied = retryPolicy.denyRetry(startNanos, delayNanos);
+            if (denied != null) {
+                promise.complete(new Failure<>(t, denied));
+                return;
+            }
+
+            try {
+                scheduled = scheduler.schedule(this::dispatch, delayNanos, TimeUnit.NANOSECONDS);
+                //cancelled while scheduling
+                if (promise.isCancelled()) {
+                    scheduled.cancel(false);
+                }
+            } catch (RejectedExecutionException e) {
+                promise.complete(new Failure<>(t, new RetryPolicyException("Retry could not be scheduled", e)));
+            }
+        }
+
+        private void dispatch() {
+            try {
+                executor.execute(this::attempt);
+            } catch (RejectedExecutionException e) {
+                promise.complete(new Failure<>(t, new RetryPolicyException("Retry could not be run", e)));
+            }
+        }
+
+        private void attempt() {
+
+            //cancelled or timed out by the caller
+            if (promise.isDone()) {
+                return;
+            }
+
+            logger.debug("retrying..");
+            tries++;
+            retryPolicy.recordRetry(tries, last);
 
-        return true;
+            final Result<T> result;
+            try {
+                result = f.apply(t);
+            } catch (RuntimeException e) {
+                promise.completeExceptionally(e);
+                return;
+            }
+
+            if (result instanceof Success<T> success) {
+                promise.complete(success);
+                return;
+            }
+
+            final Failure<T> failure = (Failure<T>) result;
+            logger.error("Error in retry: ", failure.exception());
+
+            if (!handle(retryPolicy, failure.exception())) {
+                promise.complete(failure);
+                return;
+            }
+
+            last = failure.exception();
+            scheduleNext();
+        }
     }
 
     public static RetryPolicyBuilder builder() {
@@ -143,6 +426,12 @@ public class RetryPolicy {
         private long delay;
         private int maxRetries;
         private List<Class<? extends Exception>> handle;
+        private boolean handleCauses;
+        private Backoff backoff = Backoff.FIXED;
+        private Duration maxDelay;
+        private Duration deadline;
+        private RetryBudget budget;
+        private EmailMetrics metrics;
 
         public RetryPolicyBuilder withDelay(TimeUnit timeUnit, long delay) {
             this.timeUnit = timeUnit;
@@ -155,18 +444,66 @@ public class RetryPolicy {
             return this;
         }
 
+        /**
+         * Exceptions of these types, or of their subtypes, are retried.
+         */
         public RetryPolicyBuilder handle(List<Class<? extends Exception>> handle) {
             this.handle = handle;
             return this;
         }
 
+        /**
+         * Also retry when one of the handled types is found in the cause chain, e.g. a handled
+         * {@code SocketTimeoutException} wrapped in a {@code MessagingException}.
+         */
+        public RetryPolicyBuilder handleCauses(boolean handleCauses) {
+            this.handleCauses = handleCauses;
+            return this;
+        }
+
+        /**
+         * How the delay set with {@link #withDelay} grows between retries, {@link Backoff#FIXED} by default.
+         */
+        public RetryPolicyBuilder withBackoff(Backoff backoff, Duration maxDelay) {
+            this.backoff = backoff;
+            this.maxDelay = maxDelay;
+            return this;
+        }
+
+        /**
+         * Stops retrying once the next retry would start later than this after the first failure.
+         */
+        public RetryPolicyBuilder withDeadline(Duration deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+
+        /**
+         * Shares a retry budget, pass the same instance to every policy that should draw from it.
+         */
+        public RetryPolicyBuilder withBudget(RetryBudget budget) {
+            this.budget = budget;
+            return this;
+        }
+
+        /**
+         * Reports every retry with the failure that caused it.
+         */
+        public RetryPolicyBuilder withMetrics(EmailMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
         public RetryPolicy build() {
 
             if (maxRetries < 0) {
                 throw new IllegalArgumentException("maxRetries cannot be negative");
             }
+            if (backoff == null) {
+                throw new IllegalArgumentException("backoff cannot be null");
+            }
 
-            return new RetryPolicy(timeUnit, delay, maxRetries, handle);
+            return new RetryPolicy(timeUnit, delay, maxRetries, handle, handleCauses, backoff, maxDelay, deadline, budget, metrics);
         }
     }
 }
@@ -0,0 +1,220 @@
+package com.dustwing.policy.validate;
+
+import com.dustwing.EmailNotification;
+import com.dustwing.result.Failure;
+import com.dustwing.result.Result;
+import com.dustwing.result.Success;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rate limit per recipient domain, can be shared in multiple IEmailSender
+ * <p>
+ * Every domain in the to, cc and bcc recipients takes one permit from its own bucket. A bucket is a single
+ * atomic timestamp (generic cell rate algorithm), so taking a permit is one compare-and-set.
+ * When a permit is not available the email is delayed on the calling thread for up to {@code maxDelay},
+ * after that it is rejected. Rates can be changed at any time and apply to the next permit taken.
+ * <p>
+ * A bucket whose permits have all been back for a while is the same as a new one, about once a second
+ * those are dropped so the map only holds recently used domains.
+ */
+public class DomainRateLimitPolicy implements IValidatePolicy<EmailNotification> {
+
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Map<String, Rate> rates;
+
+    private final Map<String, Bucket> buckets;
+
+    private volatile Rate defaultRate;
+
+    private final long maxDelayNanos;
+
+    private final AtomicLong nextSweepNanos;
+
+    /**
+     * @param defaultRate rate for domains without their own, null to leave them unlimited
+     * @param maxDelay    longest an email is held back waiting for a permit, {@link Duration#ZERO} to reject straight away
+     */
+    public DomainRateLimitPolicy(Rate defaultRate, Duration maxDelay) {
+        this.rates = new ConcurrentHashMap<>();
+        this.buckets = new ConcurrentHashMap<>();
+        this.defaultRate = defaultRate;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.nextSweepNanos = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL_NANOS);
+    }
+
+    public void setRate(String domain, Rate rate) {
+        final String key = normalize(domain);
+        if (rate == null) {
+            rates.remove(key);
+        } else {
+            rates.put(key, rate);
+        }
+    }
+
+    public void setDefaultRate(Rate defaultRate) {
+        this.defaultRate = defaultRate;
+    }
+
+    @Override
+    public Result<EmailNotification> validate(EmailNotification email) {
+
+        final Set<String> domains = new LinkedHashSet<>();
+        addDomains(domains, email.toRecipients());
+        addDomains(domains, email.ccRecipients());
+        addDomains(domains, email.bccRecipients());
+
+        final long now = System.nanoTime();
+        long waitNanos = 0;
+
+        sweep(now);
+
+        final Bucket[] reserved = new Bucket[domains.size()];
+        final Rate[] reservedRates = new Rate[domains.size()];
+        int count = 0;
+
+        for (String domain : domains) {
+
+            final Rate rate = rates.getOrDefault(domain, defaultRate);
+            if (rate == null) {
+                continue;
+            }
+
+            final Bucket bucket = buckets.computeIfAbsent(domain, d -> new Bucket(now));
+            final long wait = bucket.reserve(rate, now, maxDelayNanos);
+
+            if (wait < 0) {
+                for (int i = 0; i < count; i++) {
+                    reserved[i].refund(reservedRates[i]);
+                }
+                return new Failure<>(email, new ValidationException("Rate limit reached for domain " + domain));
+            }
+
+            reserved[count] = bucket;
+            reservedRates[count] = rate;
+            count++;
+
+            waitNanos = Math.max(waitNanos, wait);
+        }
+
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new Failure<>(email, new ValidationException("Interrupted waiting for rate limit", e));
+            }
+        }
+
+        return new Success<>(email);
+    }
+
+    /**
+     * Domains with a bucket.
+     */
+    public int size() {
+        return buckets.size();
+    }
+
+    /**
+     * Drops buckets that have been full for at least a sweep interval. The margin keeps a bucket that a
+     * validating thread still holds from being replaced. One thread sweeps per interval.
+     */
+    private void sweep(long now) {
+
+        final long next = nextSweepNanos.get();
+        if (now - next < 0 || !nextSweepNanos.compareAndSet(next, now + SWEEP_INTERVAL_NANOS)) {
+            return;
+        }
+
+        buckets.values().removeIf(bucket -> now - bucket.tat.get() > SWEEP_INTERVAL_NANOS);
+    }
+
+    private static void addDomains(Set<String> domains, Collection<String> recipients) {
+
+        if (recipients == null) {
+            return;
+        }
+
+        for (String recipient : recipients) {
+            final int at = recipient.lastIndexOf('@');
+            if (at >= 0) {
+                domains.add(normalize(recipient.substring(at + 1)));
+            }
+        }
+    }
+
+    private static String normalize(String domain) {
+        String normalized = domain.trim().toLowerCase(Locale.ROOT);
+        if (normalized.endsWith(">")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+
+    /**
+     * @param permitsPerSecond sustained rate
+     * @param burst            permits that can be taken at once after an idle period
+     */
+    public record Rate(double permitsPerSecond, int burst) {
+
+        public Rate {
+            if (permitsPerSecond <= 0) {
+                throw new IllegalArgumentException("permitsPerSecond must be positive");
+            }
+            if (burst < 1) {
+                throw new IllegalArgumentException("burst must be positive");
+            }
+        }
+
+        long intervalNanos() {
+            return (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        }
+    }
+
+    private static final class Bucket {
+
+        //theoretical arrival time of the next permit
+        private final AtomicLong tat;
+
+        private Bucket(long now) {
+            this.tat = new AtomicLong(now);
+        }
+
+        /**
+         * @return how long to wait before the permit is due, -1 when that is longer than {@code maxDelayNanos}
+         */
+        private long reserve(Rate rate, long now, long maxDelayNanos) {
+
+            final long interval = rate.intervalNanos();
+            final long tolerance = interval * rate.burst();
+
+            while (true) {
+                final long current = tat.get();
+                final long next = Math.max(current, now) + interval;
+                final long wait = next - now - tolerance;
+
+                if (wait > maxDelayNanos) {
+                    return -1;
+                }
+
+                if (tat.compareAndSet(current, next)) {
+                    return Math.max(0, wait);
+                }
+            }
+        }
+
+        private void refund(Rate rate) {
+            tat.addAndGet(-rate.intervalNanos());
+        }
+    }
+}
@@ -6,47 +6,141 @@ import com.dustwing.result.Result;
 import com.dustwing.result.Success;
 
 import java.time.Duration;
-import java.time.LocalDateTime;
-import java.util.Map;
+import java.util.Iterator;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Spam policy can be shared in multiple IEmailSender
+ * <p>
+ * Rejects an email when another email with the same subject was accepted less than {@code coolDown} ago.
+ * The check and the update are one atomic step per subject. Subjects are forgotten once their cool down
+ * has passed. At most {@code maxEntries} subjects are tracked: a new subject past that makes the oldest
+ * ones forgotten early, so under that load a repeat of an old subject may get through rather than new
+ * mail being rejected.
+ * <p>
+ * Known subjects are updated without locking. New subjects and evictions take a lock, which is what keeps
+ * the bound under contention.
  */
 public class SpamPolicy implements IValidatePolicy<EmailNotification> {
 
-    private final Map<String, LocalDateTime> previousSubject;
+    private static final int DEFAULT_MAX_ENTRIES = 100_000;
 
-    private final Duration coolDown;
+    private final ConcurrentHashMap<String, Stamp> previousSubject;
+
+    //accepted stamps in acceptance order, which is also expiry order since the cool down is fixed
+    private final Queue<Stamp> expiries;
+
+    //guards adding and removing subjects, updates of a known subject do not take it
+    private final ReentrantLock lock;
+
+    private final long coolDownNanos;
+
+    private final int maxEntries;
 
     public SpamPolicy(Duration coolDown) {
+        this(coolDown, DEFAULT_MAX_ENTRIES);
+    }
+
+    public SpamPolicy(Duration coolDown, int maxEntries) {
+
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+
         this.previousSubject = new ConcurrentHashMap<>();
-        this.coolDown = coolDown;
+        this.expiries = new ConcurrentLinkedQueue<>();
+        this.lock = new ReentrantLock();
+        this.coolDownNanos = coolDown.toNanos();
+        this.maxEntries = maxEntries;
 
     }
 
     @Override
     public Result<EmailNotification> validate(EmailNotification email) {
 
-        //get the previous run
-        final LocalDateTime previousRun = previousSubject.get(email.subject());
-        final LocalDateTime now = LocalDateTime.now();
+        final long now = System.nanoTime();
+
+        final String subject = email.subject();
+
+        //expired subjects are dropped by one thread at a time, the others skip it
+        if (lock.tryLock()) {
+            try {
+                evict(now, false);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        //only replaced when there is no previous run or its cool down has passed
+        final Stamp candidate = new Stamp(subject, now);
+        Stamp current = previousSubject.computeIfPresent(subject, (key, previous) -> next(previous, candidate));
 
-        //1st time
-        if (previousRun == null) {
-            previousSubject.put(email.subject(), now);
-            return new Success<>(email);
+        if (current == null) {
+            current = insert(candidate);
         }
 
-        //check if its still on cool down
-        if (now.isBefore(previousRun.plus(coolDown))) {
-            return new Failure<>(email, new ValidationException(""));
+        if (current != candidate) {
+            return new Failure<>(email, new ValidationException("Subject is on cool down"));
         }
 
-        //update
-        previousSubject.put(email.subject(), now);
+        expiries.offer(candidate);
         return new Success<>(email);
     }
 
+    public int size() {
+        return previousSubject.size();
+    }
+
+    private Stamp next(Stamp previous, Stamp candidate) {
+        return previous == null || candidate.sentAt() - previous.sentAt() >= coolDownNanos ? candidate : previous;
+    }
+
+    /**
+     * Adds a subject that was not tracked, after making room for it.
+     */
+    private Stamp insert(Stamp candidate) {
+
+        lock.lock();
+        try {
+            evict(candidate.sentAt(), true);
+            return previousSubject.compute(candidate.subject(), (key, previous) -> next(previous, candidate));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops subjects whose cool down has passed and, when {@code makeRoom}, the oldest ones until there is
+     * room for one more. Called holding the lock.
+     */
+    private void evict(long now, boolean makeRoom) {
+
+        Stamp head;
+        while ((head = expiries.peek()) != null
+                && (now - head.sentAt() >= coolDownNanos || makeRoom && previousSubject.size() >= maxEntries)) {
+            expiries.poll();
+            //a newer stamp for the same subject is kept
+            previousSubject.remove(head.subject(), head);
+        }
+
+        if (!makeRoom) {
+            return;
+        }
+
+        //stamps of updates still in flight are not queued yet, any subject makes room then
+        final Iterator<String> subjects = previousSubject.keySet().iterator();
+        while (previousSubject.size() >= maxEntries && subjects.hasNext()) {
+            subjects.next();
+            subjects.remove();
+        }
+    }
+
+    private record Stamp(String subject, long sentAt) {
+
+    }
+
 
 }
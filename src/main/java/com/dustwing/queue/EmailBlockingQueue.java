@@ -1,25 +1,68 @@
 package com.dustwing.queue;
 
+import com.dustwing.AddressCache;
 import com.dustwing.EmailNotification;
 import com.dustwing.IEmailSender;
+import com.dustwing.concurrent.VirtualThreads;
+import com.dustwing.metrics.EmailMetrics;
+import com.dustwing.queue.journal.JournalEntry;
+import com.dustwing.queue.journal.JournalException;
+import com.dustwing.queue.journal.NotificationJournal;
 import com.dustwing.result.Failure;
+import com.dustwing.result.Result;
+import com.dustwing.result.Success;
+import jakarta.mail.internet.AddressException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class EmailBlockingQueue implements IEmailSenderQueue<EmailNotification> {
 
     private final static Logger sLogger = LoggerFactory.getLogger(EmailBlockingQueue.class);
 
+    private static final Duration DEFAULT_BLOCK_TIMEOUT = Duration.ofSeconds(30);
+
+    //wakes up a worker blocked on take() during shutdown, each worker puts it back for the next one
+    private static final QueueItem STOP = new QueueItem(null, null, -1, 0);
+
+    private static final long NOT_JOURNALED = -1;
+
     private final BlockingQueue<QueueItem> queue;
-    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private final ExecutorService executorService;
+    private final boolean ownsExecutor;
+    private final int workers;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutNanos;
+    private final int batchSize;
+    private final NotificationJournal journal;
+    private final IEmailSender<EmailNotification> replaySender;
+    private final AddressCache addressCache;
+    private final EmailMetrics metrics;
+    private final Runnable unregisterDepth;
+
+    //paused workers park on the condition until resumed, shut down or the timed pause runs out
+    private final ReentrantLock pauseLock = new ReentrantLock();
+    private final Condition resumed = pauseLock.newCondition();
+    private volatile boolean paused;
+    private long pausedUntilNanos;
+    private boolean timedPause;
 
-    private final AtomicBoolean isRunning = new AtomicBoolean(true);
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private volatile boolean stopped;
 
     public static EmailBlockingQueue create() {
 
@@ -28,74 +71,584 @@ public class EmailBlockingQueue implements IEmailSenderQueue<EmailNotification>
         );
     }
 
+    /**
+     * @param workers number of threads sending concurrently
+     */
+    public static EmailBlockingQueue create(int workers) {
+        return builder().workers(workers).build();
+    }
+
+    /**
+     * The executor is not shut down by {@link #shutdown()}, it stays owned by the caller.
+     *
+     * @param executorService must be able to run {@code workers} tasks at the same time
+     */
+    public static EmailBlockingQueue create(ExecutorService executorService, int workers) {
+        return builder().executor(executorService).workers(workers).build();
+    }
+
+    /**
+     * Runs each worker on its own virtual thread, falls back to platform threads before Java 21.
+     *
+     * @param workers number of concurrent sends
+     */
+    public static EmailBlockingQueue createVirtual(int workers) {
+        return builder().virtualThreads().workers(workers).build();
+    }
+
     public EmailBlockingQueue(
             BlockingQueue<QueueItem> queue
     ) {
+        this(queue, Executors.newSingleThreadExecutor(namedThreads()), true, 1, OverflowPolicy.BLOCK, DEFAULT_BLOCK_TIMEOUT, 1, null, null, AddressCache.shared(), null);
+    }
+
+    private EmailBlockingQueue(
+            BlockingQueue<QueueItem> queue,
+            ExecutorService executorService,
+            boolean ownsExecutor,
+            int workers,
+            OverflowPolicy overflowPolicy,
+            Duration blockTimeout,
+            int batchSize,
+            NotificationJournal journal,
+            IEmailSender<EmailNotification> replaySender,
+            AddressCache addressCache,
+            EmailMetrics metrics
+    ) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be positive");
+        }
+
         this.queue = queue;
+        this.executorService = executorService;
+        this.ownsExecutor = ownsExecutor;
+        this.workers = workers;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutNanos = blockTimeout.toNanos();
+        this.batchSize = batchSize;
+        this.journal = journal;
+        this.replaySender = replaySender;
+        this.addressCache = addressCache;
+        this.metrics = metrics;
 
+        this.unregisterDepth = metrics == null ? null : metrics.registerQueueDepth(this::depth);
     }
 
+    /**
+     * @return {@link Success} when the notification was queued (or sent, with {@link OverflowPolicy#CALLER_RUNS}),
+     * {@link Failure} when the queue is full or shut down, or with an {@link AddressException} when an
+     * address is not valid
+     */
     @Override
-    public void add(IEmailSender<EmailNotification> emailSender, EmailNotification notification) {
+    public Result<EmailNotification> add(IEmailSender<EmailNotification> emailSender, EmailNotification notification) {
 
-        this.queue.add(
-                new QueueItem(
-                        emailSender,
-                        notification
-                )
-        );
+        if (stopped) {
+            return reject(notification, new EmailQueueException("Queue is shut down"));
+        }
+
+        if (addressCache != null) {
+            try {
+                addressCache.validate(notification);
+            } catch (AddressException e) {
+                return reject(notification, e);
+            }
+        }
+
+        long seq = NOT_JOURNALED;
+        if (journal != null) {
+            try {
+                seq = journal.append(notification);
+            } catch (JournalException e) {
+                return reject(notification, new EmailQueueException("Could not journal notification", e));
+            }
+        }
+
+        final QueueItem item = new QueueItem(emailSender, notification, seq, metrics == null ? 0 : System.nanoTime());
+
+        final EmailQueueException rejected = enqueue(item);
+        if (rejected == null) {
+            if (metrics != null) {
+                metrics.onEnqueue();
+            }
+            return new Success<>(notification);
+        }
+
+        if (overflowPolicy == OverflowPolicy.CALLER_RUNS) {
+            final Result<EmailNotification> result = emailSender.send(notification);
+            commit(item);
+            return result;
+        }
+
+        //the caller gets the failure, nothing left to recover
+        commit(item);
+        return reject(notification, rejected);
+    }
+
+    private Result<EmailNotification> reject(EmailNotification notification, Exception e) {
+        if (metrics != null) {
+            metrics.onEnqueueRejected();
+        }
+        return new Failure<>(notification, e);
+    }
+
+    private void dequeued(QueueItem item) {
+        if (metrics != null) {
+            metrics.onDequeue(System.nanoTime() - item.enqueuedAt());
+        }
+    }
+
+    /**
+     * @return null when the item was queued
+     */
+    private EmailQueueException enqueue(QueueItem item) {
+
+        if (queue.offer(item)) {
+            return null;
+        }
+
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    if (queue.offer(item, blockTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                        return null;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return new EmailQueueException("Interrupted waiting for queue space", e);
+                }
+                return new EmailQueueException("Queue full, timed out waiting for space");
+
+            case DROP_OLDEST:
+                do {
+                    final QueueItem dropped = queue.poll();
+                    if (dropped == STOP) {
+                        //shut down while this add was running
+                        passStop();
+                        return new EmailQueueException("Queue is shut down");
+                    }
+                    if (dropped != null) {
+                        sLogger.warn("Queue full, dropped notification [{}]", dropped.notification().id());
+                        commit(dropped);
+                    }
+                } while (!queue.offer(item));
+                return null;
+
+            case CALLER_RUNS:
+            case REJECT:
+            default:
+                return new EmailQueueException("Queue full");
+        }
+    }
+
+    private void commit(QueueItem item) {
+
+        if (item.seq() == NOT_JOURNALED) {
+            return;
+        }
+
+        try {
+            journal.commit(item.seq());
+        } catch (JournalException e) {
+            sLogger.error("Could not commit notification [{}] to journal", item.notification().id(), e);
+        }
     }
 
     @Override
     public void start() {
 
-        executorService.submit(
-                () -> {
-                    while (!Thread.currentThread().isInterrupted()) {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+
+        for (int i = 0; i < workers; i++) {
+            executorService.submit(this::work);
+        }
+
+        replay();
+    }
+
+    private void replay() {
 
-                        if (!isRunning.get()) {
-                            continue;
-                        }
-                        try {
+        if (journal == null) {
+            return;
+        }
 
-                            final QueueItem item = queue.take();
+        final List<JournalEntry> entries = journal.recover();
+        if (!entries.isEmpty()) {
+            sLogger.info("Replaying {} notifications from journal", entries.size());
+        }
 
-                            var result = item.emailSender().send(item.notification());
+        for (JournalEntry entry : entries) {
+
+            final QueueItem item = new QueueItem(replaySender, entry.notification(), entry.seq(), metrics == null ? 0 : System.nanoTime());
+
+            final EmailQueueException rejected = enqueue(item);
+            if (rejected == null) {
+                continue;
+            }
+
+            if (Thread.currentThread().isInterrupted()) {
+                //the rest stays pending in the journal and is replayed on the next start
+                sLogger.warn("Journal replay interrupted", rejected);
+                return;
+            }
+
+            if (overflowPolicy == OverflowPolicy.CALLER_RUNS) {
+                onResult(item, replaySender.send(item.notification()));
+                continue;
+            }
+
+            //same as an add refused by the overflow policy, it is not kept for the next start
+            sLogger.error("Could not replay notification [{}]", item.notification().id(), rejected);
+            commit(item);
+        }
+    }
+
+    private void work() {
+        while (!stopped && !Thread.currentThread().isInterrupted()) {
+
+            try {
+
+                awaitRunning();
+
+                final QueueItem item = queue.take();
+
+                if (item == STOP) {
+                    passStop();
+                    break;
+                }
+
+                //paused while this worker was waiting for an item
+                awaitRunning();
+                if (stopped) {
+                    break;
+                }
 
-                            if (result instanceof Failure<EmailNotification> failure) {
-                                sLogger.error("Failure in Email queue:", failure.exception());
-                            }
+                if (batchSize == 1) {
+                    dequeued(item);
+                    onResult(item, item.emailSender().send(item.notification()));
+                    continue;
+                }
 
-                        } catch (InterruptedException e) {
-                            sLogger.error("Queue interrupted", e);
-                            break;
-                        } catch (Exception ex) {
-                            sLogger.error("Exception in Email queue: ", ex);
-                        }
+                final List<QueueItem> batch = new ArrayList<>(batchSize);
+                batch.add(item);
+                queue.drainTo(batch, batchSize - 1);
 
+                int stops = 0;
+                for (Iterator<QueueItem> iterator = batch.iterator(); iterator.hasNext(); ) {
+                    final QueueItem next = iterator.next();
+                    if (next == STOP) {
+                        iterator.remove();
+                        stops++;
+                    } else {
+                        dequeued(next);
                     }
                 }
-        );
+
+                sendBatch(batch);
+
+                if (stops > 0) {
+                    passStop();
+                    break;
+                }
+
+            } catch (InterruptedException e) {
+                sLogger.error("Queue interrupted", e);
+                break;
+            } catch (Exception ex) {
+                sLogger.error("Exception in Email queue: ", ex);
+            }
+
+        }
+    }
+
+    /**
+     * Hands each run of consecutive items that share a sender to {@link IEmailSender#sendBatch}.
+     */
+    private void sendBatch(List<QueueItem> batch) {
+
+        int from = 0;
+        while (from < batch.size()) {
+
+            final IEmailSender<EmailNotification> sender = batch.get(from).emailSender();
+
+            int to = from + 1;
+            while (to < batch.size() && batch.get(to).emailSender() == sender) {
+                to++;
+            }
+
+            final List<QueueItem> group = batch.subList(from, to);
+            final List<EmailNotification> notifications = new ArrayList<>(group.size());
+            for (QueueItem item : group) {
+                notifications.add(item.notification());
+            }
+
+            final List<Result<EmailNotification>> results = sender.sendBatch(notifications);
+            for (int i = 0; i < group.size(); i++) {
+                onResult(group.get(i), results.get(i));
+            }
+
+            from = to;
+        }
+    }
+
+    /**
+     * The item is done either way: the sender already made its retries and the failure is logged.
+     * Keeping a failed item pending would replay it on every start and keep its journal segment forever.
+     */
+    private void onResult(QueueItem item, Result<EmailNotification> result) {
+        if (result instanceof Failure<EmailNotification> failure) {
+            sLogger.error("Failure in Email queue [{}]:", item.notification().id(), failure.exception());
+        }
+        commit(item);
+    }
+
+    /**
+     * Queues the stop marker for the next worker. The queue is shut down, so when it is full the oldest
+     * item is left unsent to make room.
+     */
+    private void passStop() {
+        while (!queue.offer(STOP)) {
+            queue.poll();
+        }
+    }
+
+    private void awaitRunning() throws InterruptedException {
+
+        if (!paused) {
+            return;
+        }
+
+        pauseLock.lock();
+        try {
+            while (paused && !stopped) {
+
+                if (!timedPause) {
+                    resumed.await();
+                    continue;
+                }
+
+                final long remaining = pausedUntilNanos - System.nanoTime();
+                if (remaining <= 0) {
+                    paused = false;
+                    resumed.signalAll();
+                    break;
+                }
+
+                resumed.awaitNanos(remaining);
+            }
+        } finally {
+            pauseLock.unlock();
+        }
     }
 
     @Override
     public void resume() {
-        isRunning.set(true);
+        pauseLock.lock();
+        try {
+            paused = false;
+            resumed.signalAll();
+        } finally {
+            pauseLock.unlock();
+        }
     }
 
     @Override
     public void pause() {
-        isRunning.set(false);
+        pauseLock.lock();
+        try {
+            paused = true;
+            timedPause = false;
+        } finally {
+            pauseLock.unlock();
+        }
     }
 
+    /**
+     * Pauses the workers, they resume on their own once the duration has passed.
+     */
+    @Override
+    public void pause(Duration duration) {
+        pauseLock.lock();
+        try {
+            paused = true;
+            timedPause = true;
+            pausedUntilNanos = System.nanoTime() + duration.toNanos();
+            //workers already paused wait for the old deadline, or for none
+            resumed.signalAll();
+        } finally {
+            pauseLock.unlock();
+        }
+    }
+
+    /**
+     * Workers finish the item they are sending and exit, items still queued are not sent. One stop
+     * marker is queued and passed from worker to worker, an unsent item makes room for it when the
+     * queue is full. Journaled items that were not sent are replayed on the next start.
+     */
     @Override
     public void shutdown() {
         sLogger.debug("Shutting down....");
-        executorService.shutdown();
+        stopped = true;
+
+        //release paused workers so they can exit
+        resume();
+
+        passStop();
+
+        if (unregisterDepth != null) {
+            unregisterDepth.run();
+        }
+
+        if (ownsExecutor) {
+            executorService.shutdown();
+        }
+    }
+
+    //items left after shutdown are never sent, stop markers are not items
+    private int depth() {
+        return stopped ? 0 : queue.size();
+    }
+
+
+    private static ThreadFactory namedThreads() {
+        final AtomicInteger count = new AtomicInteger();
+        return r -> new Thread(r, "email-queue-" + count.incrementAndGet());
     }
 
+    public static EmailBlockingQueueBuilder builder() {
+        return new EmailBlockingQueueBuilder();
+    }
+
+    public static class EmailBlockingQueueBuilder {
+        private int workers = 1;
+        private ExecutorService executorService;
+        private boolean virtualThreads;
+        private int capacity = Integer.MAX_VALUE;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+        private Duration blockTimeout = DEFAULT_BLOCK_TIMEOUT;
+        private int batchSize = 1;
+        private NotificationJournal journal;
+        private IEmailSender<EmailNotification> replaySender;
+        private boolean validateAddresses = true;
+        private EmailMetrics metrics;
+
+        public EmailBlockingQueueBuilder workers(int workers) {
+            this.workers = workers;
+            return this;
+        }
+
+        /**
+         * Runs the workers on a caller owned executor that is not shut down with the queue.
+         */
+        public EmailBlockingQueueBuilder executor(ExecutorService executorService) {
+            this.executorService = executorService;
+            return this;
+        }
+
+        public EmailBlockingQueueBuilder virtualThreads() {
+            this.virtualThreads = true;
+            return this;
+        }
+
+        public EmailBlockingQueueBuilder capacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        public EmailBlockingQueueBuilder overflow(OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * How long {@link OverflowPolicy#BLOCK} waits for space.
+         */
+        public EmailBlockingQueueBuilder blockTimeout(Duration blockTimeout) {
+            this.blockTimeout = blockTimeout;
+            return this;
+        }
+
+        /**
+         * Each worker takes up to {@code batchSize} queued items at a time and sends them with
+         * {@link IEmailSender#sendBatch}, so one connection carries the whole batch.
+         */
+        public EmailBlockingQueueBuilder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Journals every added notification so it survives a restart. Notifications left over from the
+         * previous run are queued again on {@link #start()}, subject to the overflow policy, and sent with
+         * {@code replaySender}. A notification whose send failed is committed as well, it is only replayed
+         * when the process stopped before it was tried.
+         * The journal stays owned by the caller and is not closed by {@link #shutdown()}.
+         */
+        public EmailBlockingQueueBuilder journal(NotificationJournal journal, IEmailSender<EmailNotification> replaySender) {
+            this.journal = journal;
+            this.replaySender = replaySender;
+            return this;
+        }
+
+        /**
+         * Parses the sender and recipient addresses when a notification is added, on by default.
+         * Invalid addresses are refused before they take a place in the queue.
+         */
+        public EmailBlockingQueueBuilder validateAddresses(boolean validateAddresses) {
+            this.validateAddresses = validateAddresses;
+            return this;
+        }
+
+        /**
+         * Reports the queue depth, adds, rejections and the time items wait in the queue.
+         */
+        public EmailBlockingQueueBuilder metrics(EmailMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public EmailBlockingQueue build() {
+
+            if (capacity < 1) {
+                throw new IllegalArgumentException("capacity must be positive");
+            }
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("batchSize must be positive");
+            }
+            if (overflowPolicy == null) {
+                throw new IllegalArgumentException("overflowPolicy cannot be null");
+            }
+            if (journal != null && replaySender == null) {
+                throw new IllegalArgumentException("replaySender cannot be null when journaling");
+            }
+
+            final ExecutorService executor;
+            if (executorService != null) {
+                executor = executorService;
+            } else if (virtualThreads) {
+                executor = VirtualThreads.newThreadPerTaskExecutor("email-queue");
+            } else {
+                executor = Executors.newFixedThreadPool(workers, namedThreads());
+            }
+
+            return new EmailBlockingQueue(
+                    new LinkedBlockingQueue<>(capacity),
+                    executor,
+                    executorService == null,
+                    workers,
+                    overflowPolicy,
+                    blockTimeout,
+                    batchSize,
+                    journal,
+                    replaySender,
+                    validateAddresses ? AddressCache.shared() : null,
+                    metrics
+            );
+        }
+    }
 
-    private record QueueItem(IEmailSender<EmailNotification> emailSender, EmailNotification notification) {
+    private record QueueItem(IEmailSender<EmailNotification> emailSender, EmailNotification notification, long seq, long enqueuedAt) {
 
     }
 
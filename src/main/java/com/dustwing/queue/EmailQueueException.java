@@ -0,0 +1,19 @@
+package com.dustwing.queue;
+
+public class EmailQueueException extends Exception {
+    public EmailQueueException() {
+        super();
+    }
+
+    public EmailQueueException(String message) {
+        super(message);
+    }
+
+    public EmailQueueException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public EmailQueueException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -2,9 +2,15 @@ package com.dustwing.queue;
 
 import com.dustwing.EmailNotification;
 import com.dustwing.IEmailSender;
+import com.dustwing.result.Result;
+
+import java.time.Duration;
 
 public interface IEmailSenderQueue<T> {
-    void add(IEmailSender<T> emailSender, EmailNotification notification);
+    /**
+     * @return whether the notification was accepted
+     */
+    Result<EmailNotification> add(IEmailSender<T> emailSender, EmailNotification notification);
 
     void start();
 
@@ -12,5 +18,7 @@ public interface IEmailSenderQueue<T> {
 
     void pause();
 
+    void pause(Duration duration);
+
     void shutdown();
 }
@@ -0,0 +1,27 @@
+package com.dustwing.queue;
+
+/**
+ * What {@link EmailBlockingQueue#add} does when a bounded queue is full.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Wait for space up to the configured timeout, then return a failure.
+     */
+    BLOCK,
+
+    /**
+     * Return a failure straight away.
+     */
+    REJECT,
+
+    /**
+     * Discard the oldest queued notification to make room.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Send the notification on the calling thread.
+     */
+    CALLER_RUNS
+}
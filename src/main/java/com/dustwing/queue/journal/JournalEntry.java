@@ -0,0 +1,10 @@
+package com.dustwing.queue.journal;
+
+import com.dustwing.EmailNotification;
+
+/**
+ * A notification that was appended to the journal but never committed.
+ */
+public record JournalEntry(long seq, EmailNotification notification) {
+
+}
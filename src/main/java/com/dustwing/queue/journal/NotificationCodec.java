@@ -0,0 +1,214 @@
+package com.dustwing.queue.journal;
+
+import com.dustwing.AttachmentSource;
+import com.dustwing.EmailAttachment;
+import com.dustwing.EmailNotification;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary form of {@link EmailNotification} stored in the journal. Inline images and file backed
+ * attachments are stored by path, other attachments by content.
+ */
+final class NotificationCodec {
+
+    private static final byte VERSION = 2;
+
+    //attachment content stored inline, the only kind in version 1
+    private static final byte VERSION_INLINE_ATTACHMENTS = 1;
+
+    private static final byte SOURCE_BYTES = 0;
+
+    private static final byte SOURCE_PATH = 1;
+
+    private NotificationCodec() {
+    }
+
+    static byte[] encode(EmailNotification notification) throws IOException {
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + notification.body().length());
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeByte(VERSION);
+        writeString(out, notification.id());
+        writeString(out, notification.from());
+        writeString(out, notification.subject());
+        writeString(out, notification.body());
+        out.writeBoolean(notification.isHtml());
+
+        final Collection<EmailAttachment> attachments = notification.attachments();
+        if (attachments == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(attachments.size());
+            for (EmailAttachment attachment : attachments) {
+                writeString(out, attachment.fileName());
+                writeString(out, attachment.mimeType());
+                writeSource(out, attachment.source());
+            }
+        }
+
+        writeStrings(out, notification.toRecipients());
+        writeStrings(out, notification.ccRecipients());
+        writeStrings(out, notification.bccRecipients());
+
+        final Map<String, File> images = notification.images();
+        if (images == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(images.size());
+            for (Map.Entry<String, File> image : images.entrySet()) {
+                writeString(out, image.getKey());
+                writeString(out, image.getValue().getPath());
+            }
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static EmailNotification decode(byte[] payload) throws IOException {
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+
+        final byte version = in.readByte();
+        if (version != VERSION && version != VERSION_INLINE_ATTACHMENTS) {
+            throw new IOException("Unknown journal entry version " + version);
+        }
+
+        final String id = readString(in);
+        final String from = readString(in);
+        final String subject = readString(in);
+        final String body = readString(in);
+        final boolean isHtml = in.readBoolean();
+
+        List<EmailAttachment> attachments = null;
+        final int attachmentCount = in.readInt();
+        if (attachmentCount >= 0) {
+            attachments = new ArrayList<>(attachmentCount);
+            for (int i = 0; i < attachmentCount; i++) {
+                final String fileName = readString(in);
+                final String mimeType = readString(in);
+                final AttachmentSource source = version == VERSION_INLINE_ATTACHMENTS
+                        ? AttachmentSource.ofBytes(readBytes(in))
+                        : readSource(in);
+                attachments.add(new EmailAttachment(fileName, mimeType, source));
+            }
+        }
+
+        final List<String> to = readStrings(in);
+        final List<String> cc = readStrings(in);
+        final List<String> bcc = readStrings(in);
+
+        Map<String, File> images = null;
+        final int imageCount = in.readInt();
+        if (imageCount >= 0) {
+            images = new LinkedHashMap<>();
+            for (int i = 0; i < imageCount; i++) {
+                images.put(readString(in), new File(readString(in)));
+            }
+        }
+
+        return new EmailNotification(id, from, subject, body, isHtml, attachments, to, cc, bcc, images);
+    }
+
+    /**
+     * Stream sources cannot be stored and are copied into the entry.
+     */
+    private static void writeSource(DataOutputStream out, AttachmentSource source) throws IOException {
+
+        if (source instanceof AttachmentSource.PathSource path) {
+            out.writeByte(SOURCE_PATH);
+            writeString(out, path.path().toString());
+            return;
+        }
+
+        out.writeByte(SOURCE_BYTES);
+
+        if (source instanceof AttachmentSource.BytesSource bytes) {
+            writeBytes(out, bytes.bytes());
+            return;
+        }
+
+        final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        try (InputStream in = source.openStream()) {
+            in.transferTo(copy);
+        }
+        out.writeInt(copy.size());
+        copy.writeTo(out);
+    }
+
+    private static AttachmentSource readSource(DataInputStream in) throws IOException {
+
+        final byte kind = in.readByte();
+        return switch (kind) {
+            case SOURCE_BYTES -> AttachmentSource.ofBytes(readBytes(in));
+            case SOURCE_PATH -> AttachmentSource.ofPath(Path.of(readString(in)));
+            default -> throw new IOException("Unknown attachment source " + kind);
+        };
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> values) throws IOException {
+        if (values == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        if (count < 0) {
+            return null;
+        }
+        final List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+}
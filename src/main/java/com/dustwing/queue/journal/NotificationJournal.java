@@ -0,0 +1,453 @@
+package com.dustwing.queue.journal;
+
+import com.dustwing.EmailNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of queued notifications, split in fixed size memory-mapped segments.
+ * <p>
+ * Each notification is appended as an entry record before it is queued and a commit record is appended
+ * once it has been sent or has failed for good. Entries without a commit record are returned by {@link #recover()} after a restart.
+ * Segments are deleted oldest first once every entry in them is committed, so a commit record is never
+ * deleted while the entry it refers to still exists.
+ * <p>
+ * Appends only write to the mapped buffer, a background task forces dirty pages to disk every
+ * {@code flushInterval} so many appends share one fsync. A crash can lose at most the last interval.
+ * <p>
+ * Record layout: {@code int payloadLength, byte type, long seq, byte[] payload, int crc32}.
+ */
+public class NotificationJournal implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationJournal.class);
+
+    private static final byte ENTRY = 1;
+    private static final byte COMMIT = 2;
+
+    //payloadLength + type + seq
+    private static final int HEADER_SIZE = 4 + 1 + 8;
+    private static final int TRAILER_SIZE = 4;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    //guarded by lock
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final Map<Long, Segment> pendingBySeq = new HashMap<>();
+    private Segment active;
+    private long nextSeq;
+    private List<JournalEntry> recovered;
+    private boolean closed;
+
+    private volatile boolean dirty;
+
+    private final ScheduledExecutorService flusher;
+
+    private NotificationJournal(Path directory, int segmentSize, Duration flushInterval) throws JournalException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        try {
+            Files.createDirectories(directory);
+            load();
+            active = openSegment(segments.isEmpty() ? 1 : segments.lastKey() + 1);
+        } catch (IOException e) {
+            closeSegments();
+            throw new JournalException("Could not open journal in " + directory, e);
+        }
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "email-journal-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        final long intervalNanos = flushInterval.toNanos();
+        flusher.scheduleWithFixedDelay(this::flushIfDirty, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return sequence number to pass to {@link #commit(long)} once the notification is sent
+     */
+    public long append(EmailNotification notification) throws JournalException {
+
+        final byte[] payload;
+        try {
+            payload = NotificationCodec.encode(notification);
+        } catch (IOException e) {
+            throw new JournalException("Could not encode notification " + notification.id(), e);
+        }
+
+        lock.lock();
+        try {
+            ensureOpen();
+
+            final long seq = nextSeq++;
+            write(ENTRY, seq, payload);
+
+            pendingBySeq.put(seq, active);
+            active.pending++;
+
+            return seq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the entry as done, it will not be recovered after a restart.
+     */
+    public void commit(long seq) throws JournalException {
+
+        lock.lock();
+        try {
+            ensureOpen();
+
+            final Segment segment = pendingBySeq.remove(seq);
+            if (segment == null) {
+                return;
+            }
+
+            write(COMMIT, seq, new byte[0]);
+
+            segment.pending--;
+            deleteCommittedSegments();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Entries that were appended but not committed before the journal was last closed, in append order.
+     * Returns them only once, they stay pending until committed.
+     */
+    public List<JournalEntry> recover() {
+        lock.lock();
+        try {
+            final List<JournalEntry> entries = recovered;
+            recovered = List.of();
+            return entries;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces everything appended so far to disk.
+     */
+    public void sync() {
+        final Segment segment;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            segment = active;
+            dirty = false;
+        } finally {
+            lock.unlock();
+        }
+        segment.buffer.force();
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdown();
+
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            active.buffer.force();
+            closeSegments();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushIfDirty() {
+        if (!dirty) {
+            return;
+        }
+        try {
+            sync();
+        } catch (RuntimeException e) {
+            logger.error("Journal flush failed", e);
+        }
+    }
+
+    private void ensureOpen() throws JournalException {
+        if (closed) {
+            throw new JournalException("Journal is closed");
+        }
+    }
+
+    private void write(byte type, long seq, byte[] payload) throws JournalException {
+
+        final int recordSize = HEADER_SIZE + payload.length + TRAILER_SIZE;
+
+        if (recordSize > segmentSize) {
+            throw new JournalException("Record of " + recordSize + " bytes does not fit in a journal segment of " + segmentSize);
+        }
+
+        if (segmentSize - active.position < recordSize) {
+            roll();
+        }
+
+        final MappedByteBuffer buffer = active.buffer;
+        final int start = active.position;
+
+        buffer.putInt(start, payload.length);
+        buffer.put(start + 4, type);
+        buffer.putLong(start + 5, seq);
+        buffer.put(start + HEADER_SIZE, payload);
+
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.slice(start + 4, 1 + 8 + payload.length));
+        buffer.putInt(start + HEADER_SIZE + payload.length, (int) crc.getValue());
+
+        active.position = start + recordSize;
+        dirty = true;
+    }
+
+    private void roll() throws JournalException {
+        //the old segment must be durable before records land in the next one
+        active.buffer.force();
+        try {
+            active = openSegment(active.index + 1);
+        } catch (IOException e) {
+            throw new JournalException("Could not create journal segment", e);
+        }
+    }
+
+    private void deleteCommittedSegments() {
+        final Iterator<Segment> iterator = segments.values().iterator();
+        while (iterator.hasNext()) {
+            final Segment segment = iterator.next();
+            if (segment == active || segment.pending > 0) {
+                return;
+            }
+            iterator.remove();
+            segment.delete();
+        }
+    }
+
+    private Segment openSegment(long index) throws IOException {
+        final Path path = directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final Segment segment = new Segment(index, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        segments.put(index, segment);
+        return segment;
+    }
+
+    private void load() throws IOException {
+
+        final List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files
+                    .filter(p -> p.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                    .filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+
+        final Map<Long, byte[]> payloads = new LinkedHashMap<>();
+        final Map<Long, Segment> entrySegments = new HashMap<>();
+
+        for (Path path : paths) {
+            final String name = path.getFileName().toString();
+            final long index = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+
+            final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            final Segment segment = new Segment(index, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            segments.put(index, segment);
+
+            readRecords(segment, payloads, entrySegments);
+        }
+
+        final List<JournalEntry> entries = new ArrayList<>(payloads.size());
+        for (Map.Entry<Long, byte[]> payload : payloads.entrySet()) {
+
+            final long seq = payload.getKey();
+            final Segment segment = entrySegments.get(seq);
+
+            try {
+                entries.add(new JournalEntry(seq, NotificationCodec.decode(payload.getValue())));
+                pendingBySeq.put(seq, segment);
+                segment.pending++;
+            } catch (IOException | RuntimeException e) {
+                logger.error("Skipping unreadable journal entry [{}]", seq, e);
+            }
+        }
+
+        recovered = entries;
+
+        //segments are loaded and none is active yet, so this drops every fully committed one
+        active = null;
+        deleteCommittedSegments();
+
+        logger.debug("Journal recovered {} pending notifications", entries.size());
+    }
+
+    private void readRecords(Segment segment, Map<Long, byte[]> payloads, Map<Long, Segment> entrySegments) {
+
+        final MappedByteBuffer buffer = segment.buffer;
+        final int limit = buffer.capacity();
+        int position = 0;
+
+        while (limit - position >= HEADER_SIZE + TRAILER_SIZE) {
+
+            final int length = buffer.getInt(position);
+            if (length < 0 || limit - position < HEADER_SIZE + length + TRAILER_SIZE) {
+                break;
+            }
+
+            final byte type = buffer.get(position + 4);
+            if (type != ENTRY && type != COMMIT) {
+                //zero filled, end of written records
+                break;
+            }
+
+            final long seq = buffer.getLong(position + 5);
+
+            final CRC32 crc = new CRC32();
+            crc.update(buffer.slice(position + 4, 1 + 8 + length));
+            if ((int) crc.getValue() != buffer.getInt(position + HEADER_SIZE + length)) {
+                logger.warn("Journal segment {} has a torn record at {}, ignoring the rest", segment.path, position);
+                break;
+            }
+
+            if (type == ENTRY) {
+                final byte[] payload = new byte[length];
+                buffer.get(position + HEADER_SIZE, payload);
+                payloads.put(seq, payload);
+                entrySegments.put(seq, segment);
+            } else {
+                payloads.remove(seq);
+                entrySegments.remove(seq);
+            }
+
+            nextSeq = Math.max(nextSeq, seq + 1);
+            position += HEADER_SIZE + length + TRAILER_SIZE;
+        }
+
+        segment.position = position;
+    }
+
+    private void closeSegments() {
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    public static NotificationJournalBuilder builder() {
+        return new NotificationJournalBuilder();
+    }
+
+    public static class NotificationJournalBuilder {
+        private Path directory;
+        private int segmentSize = 64 * 1024 * 1024;
+        private Duration flushInterval = Duration.ofMillis(10);
+
+        public NotificationJournalBuilder directory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * Size in bytes of each memory-mapped segment file, a notification must fit in one segment.
+         */
+        public NotificationJournalBuilder segmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * How often appended records are forced to disk.
+         */
+        public NotificationJournalBuilder flushInterval(Duration flushInterval) {
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        /**
+         * Opens the journal and reads back the entries that were never committed.
+         */
+        public NotificationJournal open() throws JournalException {
+
+            if (directory == null) {
+                throw new IllegalArgumentException("directory cannot be null");
+            }
+            if (segmentSize < 1024) {
+                throw new IllegalArgumentException("segmentSize must be at least 1024 bytes");
+            }
+            if (flushInterval == null || flushInterval.isNegative() || flushInterval.isZero()) {
+                throw new IllegalArgumentException("flushInterval must be positive");
+            }
+
+            return new NotificationJournal(directory, segmentSize, flushInterval);
+        }
+    }
+
+    private static final class Segment {
+        private final long index;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int position;
+        private int pending;
+
+        private Segment(long index, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.index = index;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Could not close journal segment {}", path, e);
+            }
+        }
+
+        private void delete() {
+            close();
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                logger.warn("Could not delete journal segment {}", path, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.dustwing.template;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Text split once around its {@code {{name}}} placeholders, rendering only appends.
+ */
+final class CompiledText {
+
+    private static final String OPEN = "{{";
+
+    private static final String CLOSE = "}}";
+
+    //one more literal than slots, literal i comes before slot i
+    private final String[] literals;
+
+    private final String[] slots;
+
+    private final int literalLength;
+
+    private CompiledText(String[] literals, String[] slots) {
+        this.literals = literals;
+        this.slots = slots;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    static CompiledText compile(String text) throws EmailTemplateException {
+
+        final List<String> literals = new ArrayList<>();
+        final List<String> slots = new ArrayList<>();
+
+        int from = 0;
+        int open;
+        while ((open = text.indexOf(OPEN, from)) >= 0) {
+
+            final int close = text.indexOf(CLOSE, open + OPEN.length());
+            if (close < 0) {
+                throw new EmailTemplateException("Placeholder is not closed at index " + open);
+            }
+
+            final String name = text.substring(open + OPEN.length(), close).trim();
+            if (name.isEmpty()) {
+                throw new EmailTemplateException("Placeholder without a name at index " + open);
+            }
+
+            literals.add(text.substring(from, open));
+            slots.add(name);
+            from = close + CLOSE.length();
+        }
+        literals.add(text.substring(from));
+
+        return new CompiledText(literals.toArray(String[]::new), slots.toArray(String[]::new));
+    }
+
+    String render(Map<String, String> values, boolean escapeHtml) throws EmailTemplateException {
+
+        if (slots.length == 0) {
+            return literals[0];
+        }
+
+        final StringBuilder out = new StringBuilder(literalLength + 16 * slots.length);
+
+        for (int i = 0; i < slots.length; i++) {
+            out.append(literals[i]);
+
+            final String value = values == null ? null : values.get(slots[i]);
+            if (value == null) {
+                throw new EmailTemplateException("No value for placeholder " + slots[i]);
+            }
+
+            if (escapeHtml) {
+                appendEscaped(out, value);
+            } else {
+                out.append(value);
+            }
+        }
+        out.append(literals[slots.length]);
+
+        return out.toString();
+    }
+
+    private static void appendEscaped(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '<' -> out.append("&lt;");
+                case '>' -> out.append("&gt;");
+                case '&' -> out.append("&amp;");
+                case '"' -> out.append("&quot;");
+                case '\'' -> out.append("&#39;");
+                default -> out.append(c);
+            }
+        }
+    }
+}
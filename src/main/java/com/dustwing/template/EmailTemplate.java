@@ -0,0 +1,250 @@
+package com.dustwing.template;
+
+import com.dustwing.AddressCache;
+import com.dustwing.AttachmentDataSource;
+import com.dustwing.EmailAttachment;
+import com.dustwing.SplicedMimeMessage;
+import jakarta.activation.DataHandler;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * Subject, body, attachments and inline images compiled once, rendered per recipient.
+ * <p>
+ * Placeholders are written {@code {{name}}} in the subject and body. Attachments and images are MIME
+ * encoded when the template is compiled, rendering only fills in the placeholders, encodes the body and
+ * sets the headers. The encoded parts are shared by every rendered message and written as they are.
+ * Values are HTML escaped in HTML bodies.
+ */
+public class EmailTemplate {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final InternetAddress from;
+
+    private final CompiledText subject;
+
+    private final CompiledText body;
+
+    private final boolean isHtml;
+
+    private final String contentType;
+
+    //multipart delimiter and body part headers, empty for a single part
+    private final byte[] head;
+
+    //the encoded attachment and image parts and the closing delimiter, CRLF for a single part
+    private final byte[] tail;
+
+    private final boolean multipart;
+
+    private EmailTemplate(
+            InternetAddress from,
+            CompiledText subject,
+            CompiledText body,
+            boolean isHtml,
+            String contentType,
+            byte[] head,
+            byte[] tail,
+            boolean multipart
+    ) {
+        this.from = from;
+        this.subject = subject;
+        this.body = body;
+        this.isHtml = isHtml;
+        this.contentType = contentType;
+        this.head = head;
+        this.tail = tail;
+        this.multipart = multipart;
+    }
+
+    /**
+     * @param values placeholder name to value, every placeholder must have one
+     */
+    public SplicedMimeMessage render(
+            Session session, Collection<String> to, Map<String, String> values
+    ) throws EmailTemplateException, MessagingException {
+
+        final byte[] encodedBody = Base64.getMimeEncoder()
+                .encode(body.render(values, isHtml).getBytes(StandardCharsets.UTF_8));
+
+        final SplicedMimeMessage message = new SplicedMimeMessage(session, List.of(head, encodedBody, tail));
+
+        message.setFrom(from);
+        for (String address : to) {
+            message.addRecipient(Message.RecipientType.TO, AddressCache.shared().parse(address));
+        }
+        message.setSubject(subject.render(values, false), "UTF-8");
+        message.setSentDate(new Date());
+        message.setHeader("Content-Type", contentType);
+        if (!multipart) {
+            message.setHeader("Content-Transfer-Encoding", "base64");
+        }
+
+        return message;
+    }
+
+    public static EmailTemplateBuilder builder() {
+        return new EmailTemplateBuilder();
+    }
+
+    public static class EmailTemplateBuilder {
+        private String from;
+        private String subject;
+        private String body;
+        private boolean isHtml;
+        private Collection<EmailAttachment> attachments;
+        private Map<String, File> images;
+
+        public EmailTemplateBuilder from(String from) {
+            this.from = from;
+            return this;
+        }
+
+        public EmailTemplateBuilder subject(String subject) {
+            this.subject = subject;
+            return this;
+        }
+
+        public EmailTemplateBuilder body(String body) {
+            this.body = body;
+            return this;
+        }
+
+        public EmailTemplateBuilder html(boolean isHtml) {
+            this.isHtml = isHtml;
+            return this;
+        }
+
+        /**
+         * Read once, when the template is compiled.
+         */
+        public EmailTemplateBuilder attachments(Collection<EmailAttachment> attachments) {
+            this.attachments = attachments;
+            return this;
+        }
+
+        /**
+         * @param images content id to file, read once when the template is compiled
+         */
+        public EmailTemplateBuilder images(Map<String, File> images) {
+            this.images = images;
+            return this;
+        }
+
+        public EmailTemplate compile() throws EmailTemplateException {
+
+            if (from == null || subject == null || body == null) {
+                throw new EmailTemplateException("from, subject and body must be set");
+            }
+
+            try {
+                final InternetAddress fromAddress = AddressCache.shared().parse(from);
+                final String bodyType = isHtml ? "text/html; charset=utf-8" : "text/plain; charset=utf-8";
+
+                final List<MimeBodyPart> parts = encodeParts();
+                if (parts.isEmpty()) {
+                    return new EmailTemplate(
+                            fromAddress,
+                            CompiledText.compile(subject),
+                            CompiledText.compile(body),
+                            isHtml,
+                            bodyType,
+                            new byte[0],
+                            CRLF,
+                            false
+                    );
+                }
+
+                final String boundary = "----=_Template_" + UUID.randomUUID();
+
+                final ByteArrayOutputStream head = new ByteArrayOutputStream();
+                write(head, "--" + boundary + "\r\n"
+                        + "Content-Type: " + bodyType + "\r\n"
+                        + "Content-Transfer-Encoding: base64\r\n"
+                        + "\r\n");
+
+                final ByteArrayOutputStream tail = new ByteArrayOutputStream();
+                for (MimeBodyPart part : parts) {
+                    write(tail, "\r\n--" + boundary + "\r\n");
+                    part.writeTo(tail);
+                }
+                write(tail, "\r\n--" + boundary + "--\r\n");
+
+                return new EmailTemplate(
+                        fromAddress,
+                        CompiledText.compile(subject),
+                        CompiledText.compile(body),
+                        isHtml,
+                        "multipart/mixed; boundary=\"" + boundary + "\"",
+                        head.toByteArray(),
+                        tail.toByteArray(),
+                        true
+                );
+
+            } catch (MessagingException | IOException e) {
+                throw new EmailTemplateException("Could not compile template", e);
+            }
+        }
+
+        private List<MimeBodyPart> encodeParts() throws MessagingException, IOException {
+
+            final List<MimeBodyPart> parts = new ArrayList<>();
+
+            if (images != null) {
+                for (Map.Entry<String, File> image : images.entrySet()) {
+                    final MimeBodyPart part = new MimeBodyPart();
+                    part.setHeader("Content-ID", "<" + image.getKey() + ">");
+                    part.setDisposition(MimeBodyPart.INLINE);
+                    part.attachFile(image.getValue());
+                    parts.add(part);
+                }
+            }
+
+            if (attachments != null) {
+                for (EmailAttachment attachment : attachments) {
+                    final MimeBodyPart part = new MimeBodyPart();
+                    part.setDataHandler(new DataHandler(new AttachmentDataSource(attachment)));
+                    part.setFileName(attachment.fileName());
+                    part.setHeader("Content-Transfer-Encoding", "base64");
+                    parts.add(part);
+                }
+            }
+
+            if (!parts.isEmpty()) {
+                //part headers are only filled in when a message containing them is saved
+                final MimeMultipart multipart = new MimeMultipart();
+                for (MimeBodyPart part : parts) {
+                    multipart.addBodyPart(part);
+                }
+                final MimeMessage holder = new MimeMessage(Session.getInstance(new Properties()));
+                holder.setContent(multipart);
+                holder.saveChanges();
+            }
+
+            return parts;
+        }
+
+        private static void write(ByteArrayOutputStream out, String ascii) {
+            out.writeBytes(ascii.getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.dustwing.template;
+
+public class EmailTemplateException extends Exception {
+    public EmailTemplateException() {
+        super();
+    }
+
+    public EmailTemplateException(String message) {
+        super(message);
+    }
+
+    public EmailTemplateException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public EmailTemplateException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,13 @@
+package com.dustwing.template;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * One rendering of a template.
+ *
+ * @param values placeholder name to value
+ */
+public record PersonalizedEmail(EmailTemplate template, Collection<String> to, Map<String, String> values) {
+
+}
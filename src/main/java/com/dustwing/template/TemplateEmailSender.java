@@ -0,0 +1,33 @@
+package com.dustwing.template;
+
+import com.dustwing.EmailSender;
+import com.dustwing.IEmailSender;
+import com.dustwing.result.Failure;
+import com.dustwing.result.Result;
+import com.dustwing.result.Success;
+import com.dustwing.transport.TransportPoolException;
+import jakarta.mail.MessagingException;
+
+/**
+ * Sends rendered templates over an {@link EmailSender}, its pool included.
+ */
+public class TemplateEmailSender implements IEmailSender<PersonalizedEmail> {
+
+    private final EmailSender sender;
+
+    public TemplateEmailSender(EmailSender sender) {
+        this.sender = sender;
+    }
+
+    @Override
+    public Result<PersonalizedEmail> send(PersonalizedEmail email) {
+
+        try {
+            sender.sendMessage(email.template().render(sender.getSession(), email.to(), email.values()));
+        } catch (EmailTemplateException | MessagingException | TransportPoolException e) {
+            return new Failure<>(email, e);
+        }
+
+        return new Success<>(email);
+    }
+}
@@ -0,0 +1,62 @@
+package com.dustwing.transport;
+
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Transport;
+
+/**
+ * A connected {@link Transport} owned by a {@link TransportPool}.
+ * Borrowed instances must be given back with {@link TransportPool#release(PooledTransport)}
+ * or {@link TransportPool#invalidate(PooledTransport)}.
+ */
+public final class PooledTransport {
+
+    private final Transport transport;
+
+    private volatile long lastUsedNanos;
+
+    private volatile int messagesSent;
+
+    PooledTransport(Transport transport) {
+        this.transport = transport;
+        this.lastUsedNanos = System.nanoTime();
+    }
+
+    public void sendMessage(Message message, Address[] recipients) throws MessagingException {
+        transport.sendMessage(message, recipients);
+        messagesSent++;
+        lastUsedNanos = System.nanoTime();
+    }
+
+    /**
+     * Checks the connection with a NOOP (or RSET when {@code mail.smtp.userset} is set).
+     */
+    public boolean isConnected() {
+        return transport.isConnected();
+    }
+
+    public Transport transport() {
+        return transport;
+    }
+
+    public int messagesSent() {
+        return messagesSent;
+    }
+
+    long lastUsedNanos() {
+        return lastUsedNanos;
+    }
+
+    void touch() {
+        lastUsedNanos = System.nanoTime();
+    }
+
+    void close() {
+        try {
+            transport.close();
+        } catch (MessagingException ignored) {
+            //connection is being discarded anyway
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.dustwing.transport;
+
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds one connection borrowed from a {@link TransportPool} across several sends.
+ * <p>
+ * The connection is borrowed on the first send. When a reused connection turns out to have been dropped
+ * by the server, a new one is borrowed and the message is sent once more. A rejected message leaves
+ * the connection in place for the next one, any other failure discards it.
+ */
+public class TransportLease implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransportLease.class);
+
+    private final TransportPool pool;
+
+    private final boolean ownsPool;
+
+    private PooledTransport pooled;
+
+    /**
+     * @param ownsPool close the pool together with the lease
+     */
+    public TransportLease(TransportPool pool, boolean ownsPool) {
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+    }
+
+    public void send(Message message, Address[] recipients) throws MessagingException, TransportPoolException {
+
+        for (int attempt = 0; ; attempt++) {
+
+            if (pooled == null) {
+                pooled = pool.borrow();
+            }
+
+            try {
+                pooled.sendMessage(message, recipients);
+                return;
+
+            } catch (MessagingException e) {
+
+                //message rejected, the connection itself is fine
+                if (pooled.isConnected()) {
+                    throw e;
+                }
+
+                final boolean reused = pooled.messagesSent() > 0;
+                pool.invalidate(pooled);
+                pooled = null;
+
+                if (attempt > 0 || !reused) {
+                    throw e;
+                }
+
+                logger.debug("Pooled transport was disconnected, reconnecting", e);
+
+            } catch (RuntimeException e) {
+                //the protocol state is unknown, the connection must not be reused
+                pool.invalidate(pooled);
+                pooled = null;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * The connection currently held, borrowing one if needed.
+     */
+    public PooledTransport transport() throws MessagingException, TransportPoolException {
+        if (pooled == null) {
+            pooled = pool.borrow();
+        }
+        return pooled;
+    }
+
+    @Override
+    public void close() {
+        if (pooled != null) {
+            pool.release(pooled);
+            pooled = null;
+        }
+        if (ownsPool) {
+            pool.close();
+        }
+    }
+}
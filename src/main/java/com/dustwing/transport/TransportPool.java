@@ -0,0 +1,227 @@
+package com.dustwing.transport;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bounded pool of connected transports for a single {@link Session}.
+ * <p>
+ * Idle connections are handed out most-recently-used first, so the ones that sat unused the longest
+ * collect at the tail and are evicted there. A connection that has been idle longer than
+ * {@code validateAfterIdle} is checked before it is handed out.
+ */
+public class TransportPool implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransportPool.class);
+
+    private final Session session;
+
+    private final int maxTotal;
+
+    private final long borrowTimeoutNanos;
+
+    private final long maxIdleNanos;
+
+    private final long validateAfterIdleNanos;
+
+    private final int maxMessagesPerConnection;
+
+    private final BlockingDeque<PooledTransport> idle = new LinkedBlockingDeque<>();
+
+    private final Semaphore permits;
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private TransportPool(
+            Session session,
+            int maxTotal,
+            Duration borrowTimeout,
+            Duration maxIdleTime,
+            Duration validateAfterIdle,
+            int maxMessagesPerConnection
+    ) {
+        this.session = session;
+        this.maxTotal = maxTotal;
+        this.borrowTimeoutNanos = borrowTimeout.toNanos();
+        this.maxIdleNanos = maxIdleTime.toNanos();
+        this.validateAfterIdleNanos = validateAfterIdle.toNanos();
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+        this.permits = new Semaphore(maxTotal, true);
+    }
+
+    public PooledTransport borrow() throws MessagingException, TransportPoolException {
+
+        if (closed.get()) {
+            throw new TransportPoolException("Transport pool is closed");
+        }
+
+        try {
+            if (!permits.tryAcquire(borrowTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new TransportPoolException("Timed out waiting for a transport, pool size " + maxTotal);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransportPoolException("Interrupted waiting for a transport", e);
+        }
+
+        try {
+            PooledTransport pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isUsable(pooled)) {
+                    return pooled;
+                }
+                pooled.close();
+            }
+
+            return connect();
+
+        } catch (MessagingException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public void release(PooledTransport pooled) {
+
+        if (closed.get() || pooled.messagesSent() >= maxMessagesPerConnection) {
+            pooled.close();
+        } else {
+            pooled.touch();
+            idle.offerFirst(pooled);
+            evictIdle();
+        }
+
+        permits.release();
+    }
+
+    /**
+     * Closes a borrowed transport that failed, instead of returning it to the pool.
+     */
+    public void invalidate(PooledTransport pooled) {
+        pooled.close();
+        permits.release();
+    }
+
+    /**
+     * Closes idle connections that have not been used for longer than {@code maxIdleTime}.
+     * Called on every release, can also be scheduled by the owner.
+     */
+    public void evictIdle() {
+        final long now = System.nanoTime();
+
+        PooledTransport last;
+        while ((last = idle.peekLast()) != null && now - last.lastUsedNanos() > maxIdleNanos) {
+            if (idle.removeLastOccurrence(last)) {
+                logger.debug("Evicting idle transport");
+                last.close();
+            }
+        }
+    }
+
+    public int idleCount() {
+        return idle.size();
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        PooledTransport pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            pooled.close();
+        }
+    }
+
+    private boolean isUsable(PooledTransport pooled) {
+
+        if (pooled.messagesSent() >= maxMessagesPerConnection) {
+            return false;
+        }
+
+        final long idleNanos = System.nanoTime() - pooled.lastUsedNanos();
+        if (idleNanos > maxIdleNanos) {
+            return false;
+        }
+
+        return idleNanos <= validateAfterIdleNanos || pooled.isConnected();
+    }
+
+    private PooledTransport connect() throws MessagingException {
+        logger.debug("Opening new transport");
+        final Transport transport = session.getTransport();
+        transport.connect();
+        return new PooledTransport(transport);
+    }
+
+    public static TransportPoolBuilder builder() {
+        return new TransportPoolBuilder();
+    }
+
+    public static class TransportPoolBuilder {
+        private int maxTotal = 8;
+        private Duration borrowTimeout = Duration.ofSeconds(30);
+        private Duration maxIdleTime = Duration.ofMinutes(1);
+        private Duration validateAfterIdle = Duration.ofSeconds(2);
+        private int maxMessagesPerConnection = 100;
+
+        public TransportPoolBuilder maxTotal(int maxTotal) {
+            this.maxTotal = maxTotal;
+            return this;
+        }
+
+        public TransportPoolBuilder borrowTimeout(Duration borrowTimeout) {
+            this.borrowTimeout = borrowTimeout;
+            return this;
+        }
+
+        public TransportPoolBuilder maxIdleTime(Duration maxIdleTime) {
+            this.maxIdleTime = maxIdleTime;
+            return this;
+        }
+
+        /**
+         * Connections idle for longer than this are checked with NOOP before they are handed out.
+         * {@link Duration#ZERO} checks on every borrow.
+         */
+        public TransportPoolBuilder validateAfterIdle(Duration validateAfterIdle) {
+            this.validateAfterIdle = validateAfterIdle;
+            return this;
+        }
+
+        public TransportPoolBuilder maxMessagesPerConnection(int maxMessagesPerConnection) {
+            this.maxMessagesPerConnection = maxMessagesPerConnection;
+            return this;
+        }
+
+        public TransportPool build(Session session) {
+
+            if (session == null) {
+                throw new IllegalArgumentException("session cannot be null");
+            }
+            if (maxTotal < 1) {
+                throw new IllegalArgumentException("maxTotal must be positive");
+            }
+            if (maxMessagesPerConnection < 1) {
+                throw new IllegalArgumentException("maxMessagesPerConnection must be positive");
+            }
+
+            return new TransportPool(session, maxTotal, borrowTimeout, maxIdleTime, validateAfterIdle, maxMessagesPerConnection);
+        }
+    }
+}
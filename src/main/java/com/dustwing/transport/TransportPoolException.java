@@ -0,0 +1,21 @@
+package com.dustwing.transport;
+
+import com.dustwing.EmailException;
+
+public class TransportPoolException extends EmailException {
+    public TransportPoolException() {
+        super();
+    }
+
+    public TransportPoolException(String message) {
+        super(message);
+    }
+
+    public TransportPoolException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public TransportPoolException(Throwable cause) {
+        super(cause);
+    }
+}
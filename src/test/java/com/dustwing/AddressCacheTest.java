@@ -0,0 +1,57 @@
+package com.dustwing;
+
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AddressCacheTest {
+
+    @Test
+    void testDomainlessAddressSentButNotValidated() throws Exception {
+
+        final EmailNotification notification = new EmailNotification.EmailNotificationBuilder()
+                .from("from@example.com")
+                .subject("Domainless")
+                .body("Test")
+                .html(true)
+                .to(List.of("postmaster"))
+                .build();
+
+        //the sender accepts what new InternetAddress(address) always accepted
+        final Session session = Session.getInstance(new Properties());
+        final MimeMessage message = new EmailSender(session).buildMessage(notification, session);
+        assertEquals("postmaster", message.getRecipients(Message.RecipientType.TO)[0].toString());
+
+        //only the opt-in validation of the queue is strict
+        assertThrows(AddressException.class, () -> new AddressCache(10).validate(notification));
+    }
+
+    @Test
+    void testLeastRecentlyUsedEvicted() throws AddressException {
+
+        final AddressCache cache = new AddressCache(2);
+
+        final var hot = cache.parse("hot@example.com");
+        cache.parse("cold@example.com");
+        cache.parse("hot@example.com");
+        cache.parse("new@example.com");
+
+        assertEquals(2, cache.size());
+        assertSame(hot, cache.parse("hot@example.com"));
+        assertEquals(2, cache.size());
+
+        //cold was evicted, so it is parsed again
+        final var cold = cache.parse("cold@example.com");
+        assertNotSame(cold, cache.parse("other@example.com"));
+    }
+}
@@ -0,0 +1,73 @@
+package com.dustwing;
+
+import com.dustwing.policy.circuit.CircuitBreaker;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CircuitBreakerTest {
+
+    @Test
+    void testCallFromClosedIsNotATrial() throws InterruptedException {
+
+        final CircuitBreaker circuitBreaker = CircuitBreaker.builder()
+                .minimumCalls(2)
+                .failureRateThreshold(0.5)
+                .waitInOpen(Duration.ofMillis(50))
+                .permittedCallsInHalfOpen(1)
+                .build();
+
+        //still running while the breaker opens
+        final CircuitBreaker.Period slow = circuitBreaker.tryAcquirePermission();
+        assertEquals(CircuitBreaker.State.CLOSED, slow.getState());
+
+        for (int i = 0; i < 2; i++) {
+            circuitBreaker.onResult(circuitBreaker.tryAcquirePermission(), false, 0);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertNull(circuitBreaker.tryAcquirePermission());
+
+        Thread.sleep(100);
+
+        final CircuitBreaker.Period trial = circuitBreaker.tryAcquirePermission();
+        assertNotNull(trial);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        //ends during half open, neither closes nor opens the breaker
+        circuitBreaker.onResult(slow, true, 0);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        circuitBreaker.onResult(slow, false, 0);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        circuitBreaker.onResult(trial, true, 0);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    void testLateFailureDoesNotExtendOpen() throws InterruptedException {
+
+        final CircuitBreaker circuitBreaker = CircuitBreaker.builder()
+                .minimumCalls(1)
+                .failureRateThreshold(0.5)
+                .waitInOpen(Duration.ofMillis(100))
+                .build();
+
+        final CircuitBreaker.Period first = circuitBreaker.tryAcquirePermission();
+        final CircuitBreaker.Period second = circuitBreaker.tryAcquirePermission();
+
+        circuitBreaker.onResult(first, false, 0);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        //a failure that loses the race to open must not push the deadline back
+        Thread.sleep(60);
+        circuitBreaker.onResult(second, false, 0);
+        Thread.sleep(60);
+
+        assertNotNull(circuitBreaker.tryAcquirePermission());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+    }
+}
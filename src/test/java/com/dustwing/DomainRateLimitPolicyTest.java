@@ -0,0 +1,77 @@
+package com.dustwing;
+
+import com.dustwing.policy.validate.DomainRateLimitPolicy;
+import com.dustwing.result.Failure;
+import com.dustwing.result.Success;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DomainRateLimitPolicyTest {
+
+    @Test
+    void testRejectsOverRate() {
+
+        final DomainRateLimitPolicy policy = new DomainRateLimitPolicy(null, Duration.ZERO);
+        policy.setRate("gmail.com", new DomainRateLimitPolicy.Rate(1, 2));
+
+        assertInstanceOf(Success.class, policy.validate(createNotification("a@gmail.com")));
+        assertInstanceOf(Success.class, policy.validate(createNotification("b@Gmail.com")));
+        assertInstanceOf(Failure.class, policy.validate(createNotification("c@gmail.com")));
+
+        //no rate for this domain
+        assertInstanceOf(Success.class, policy.validate(createNotification("a@example.com")));
+    }
+
+    @Test
+    void testDelaysOverRate() {
+
+        final DomainRateLimitPolicy policy = new DomainRateLimitPolicy(
+                new DomainRateLimitPolicy.Rate(10, 1),
+                Duration.ofSeconds(1)
+        );
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            assertInstanceOf(Success.class, policy.validate(createNotification("to@example.com")));
+        }
+        final long elapsedMillis = Duration.ofNanos(System.nanoTime() - start).toMillis();
+
+        //first permit is free, the next two wait 100ms each
+        assertTrue(elapsedMillis >= 150, "elapsed " + elapsedMillis);
+    }
+
+    @Test
+    void testIdleBucketsDropped() throws InterruptedException {
+
+        final DomainRateLimitPolicy policy = new DomainRateLimitPolicy(
+                new DomainRateLimitPolicy.Rate(1000, 1),
+                Duration.ZERO
+        );
+
+        for (int i = 0; i < 100; i++) {
+            assertInstanceOf(Success.class, policy.validate(createNotification("to@domain" + i + ".com")));
+        }
+        assertEquals(100, policy.size());
+
+        Thread.sleep(2100);
+
+        assertInstanceOf(Success.class, policy.validate(createNotification("to@other.com")));
+        assertEquals(1, policy.size());
+    }
+
+    private static EmailNotification createNotification(String to) {
+        return new EmailNotification.EmailNotificationBuilder()
+                .from("from@example.com")
+                .subject("DomainRateLimitPolicyTest")
+                .body("DomainRateLimitPolicyTest")
+                .html(true)
+                .to(List.of(to))
+                .build();
+    }
+}
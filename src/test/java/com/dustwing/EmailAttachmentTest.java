@@ -0,0 +1,59 @@
+package com.dustwing;
+
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EmailAttachmentTest {
+
+    @Test
+    void testStreamReadOnceWhileWriting() throws Exception {
+
+        final AtomicInteger opened = new AtomicInteger();
+        final byte[] content = "streamed attachment".getBytes(StandardCharsets.UTF_8);
+
+        final EmailAttachment attachment = new EmailAttachment(
+                "streamed.bin",
+                "application/octet-stream",
+                AttachmentSource.ofStream(() -> {
+                    opened.incrementAndGet();
+                    return new ByteArrayInputStream(content);
+                })
+        );
+
+        final EmailNotification notification = new EmailNotification.EmailNotificationBuilder()
+                .from("from@example.com")
+                .subject("attachment")
+                .body("<p>attachment</p>")
+                .html(true)
+                .to(List.of("to@example.com"))
+                .attachments(List.of(attachment))
+                .build();
+
+        final EmailSender sender = new EmailSender(Session.getInstance(new Properties()));
+
+        final Message message = sender.buildMessage(notification, sender.session);
+        message.saveChanges();
+
+        //nothing read until the message is written
+        assertEquals(0, opened.get());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out);
+
+        assertEquals(1, opened.get());
+        final String raw = out.toString(StandardCharsets.US_ASCII);
+        assertTrue(raw.contains("Content-Transfer-Encoding: base64"));
+        assertTrue(raw.contains("c3RyZWFtZWQgYXR0YWNobWVudA=="));
+    }
+}
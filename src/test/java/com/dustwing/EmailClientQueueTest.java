@@ -3,11 +3,27 @@ package com.dustwing;
 
 import com.dustwing.queue.EmailBlockingQueue;
 import com.dustwing.queue.IEmailSenderQueue;
+import com.dustwing.queue.OverflowPolicy;
+import com.dustwing.result.Failure;
+import com.dustwing.result.Result;
+import com.dustwing.result.Success;
+import jakarta.mail.internet.AddressException;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.dustwing.TestConstants.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -57,6 +73,205 @@ class EmailClientQueueTest {
 
     }
 
+    @Test
+    void testMultipleWorkers() throws InterruptedException {
+
+        final int items = 8;
+        final CountDownLatch sent = new CountDownLatch(items);
+
+        final IEmailSender<EmailNotification> slowSender = notification -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sent.countDown();
+            return new Success<>(notification);
+        };
+
+        final IEmailSenderQueue<EmailNotification> queue = EmailBlockingQueue.create(4);
+        queue.start();
+
+        for (int i = 0; i < items; i++) {
+            queue.add(slowSender, createHtmlNotification(String.valueOf(i)));
+        }
+
+        //one worker would need 1600ms
+        assertTrue(sent.await(1200, TimeUnit.MILLISECONDS));
+
+        queue.shutdown();
+    }
+
+    @Test
+    void testTimedPause() throws InterruptedException {
+
+        final CountDownLatch sent = new CountDownLatch(1);
+
+        final IEmailSender<EmailNotification> sender = notification -> {
+            sent.countDown();
+            return new Success<>(notification);
+        };
+
+        final IEmailSenderQueue<EmailNotification> queue = EmailBlockingQueue.create(2);
+        queue.start();
+        queue.pause(Duration.ofMillis(500));
+
+        queue.add(sender, createHtmlNotification("paused"));
+
+        assertFalse(sent.await(300, TimeUnit.MILLISECONDS));
+        assertTrue(sent.await(1000, TimeUnit.MILLISECONDS));
+
+        queue.shutdown();
+    }
+
+    @Test
+    void testTimedPauseReplacesPause() throws InterruptedException {
+
+        final CountDownLatch sent = new CountDownLatch(1);
+
+        final IEmailSender<EmailNotification> sender = notification -> {
+            sent.countDown();
+            return new Success<>(notification);
+        };
+
+        final IEmailSenderQueue<EmailNotification> queue = EmailBlockingQueue.create(2);
+        queue.start();
+        queue.pause();
+
+        queue.add(sender, createHtmlNotification("paused"));
+        assertFalse(sent.await(200, TimeUnit.MILLISECONDS));
+
+        //the parked worker picks up the deadline, no resume needed
+        queue.pause(Duration.ofMillis(50));
+        assertTrue(sent.await(1000, TimeUnit.MILLISECONDS));
+
+        queue.shutdown();
+    }
+
+    @Test
+    void testBoundedQueueRejects() {
+
+        final EmailBlockingQueue queue = EmailBlockingQueue.builder()
+                .capacity(1)
+                .overflow(OverflowPolicy.REJECT)
+                .build();
+
+        final var client = new EmailClientPass();
+
+        assertInstanceOf(Success.class, queue.add(client, createHtmlNotification("1")));
+        assertInstanceOf(Failure.class, queue.add(client, createHtmlNotification("2")));
+
+        queue.shutdown();
+    }
+
+    @Test
+    void testShutdownWithMoreWorkersThanCapacity() throws InterruptedException {
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        final EmailBlockingQueue queue = EmailBlockingQueue.builder()
+                .executor(executor)
+                .workers(4)
+                .capacity(1)
+                .build();
+
+        queue.start();
+        queue.shutdown();
+
+        //only one stop marker fits, the other workers must still exit
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testShutdownWithFullQueue() throws InterruptedException {
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        final EmailBlockingQueue queue = EmailBlockingQueue.builder()
+                .executor(executor)
+                .workers(4)
+                .capacity(1)
+                .build();
+
+        queue.start();
+        queue.pause();
+        assertInstanceOf(Success.class, queue.add(new EmailClientPass(), createHtmlNotification("queued")));
+
+        //the unsent item makes room for the stop marker
+        queue.shutdown();
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testBatches() throws InterruptedException {
+
+        final int items = 10;
+        final CountDownLatch sent = new CountDownLatch(items);
+        final AtomicInteger largestBatch = new AtomicInteger();
+
+        final IEmailSender<EmailNotification> sender = new IEmailSender<>() {
+            @Override
+            public Result<EmailNotification> send(EmailNotification notification) {
+                sent.countDown();
+                return new Success<>(notification);
+            }
+
+            @Override
+            public List<Result<EmailNotification>> sendBatch(Collection<EmailNotification> notifications) {
+                largestBatch.accumulateAndGet(notifications.size(), Math::max);
+                return IEmailSender.super.sendBatch(notifications);
+            }
+        };
+
+        final EmailBlockingQueue queue = EmailBlockingQueue.builder()
+                .batchSize(5)
+                .build();
+
+        for (int i = 0; i < items; i++) {
+            queue.add(sender, createHtmlNotification(String.valueOf(i)));
+        }
+        queue.start();
+
+        assertTrue(sent.await(1000, TimeUnit.MILLISECONDS));
+        assertEquals(5, largestBatch.get());
+
+        queue.shutdown();
+    }
+
+    @Test
+    void testInvalidAddressRejectedOnAdd() {
+
+        final EmailBlockingQueue queue = EmailBlockingQueue.builder().build();
+
+        final EmailNotification notification = new EmailNotification.EmailNotificationBuilder()
+                .from("from@example.com")
+                .subject("Invalid")
+                .body("Test")
+                .html(true)
+                .to(List.of("to@example.com", "not an address"))
+                .build();
+
+        final Result<EmailNotification> result = queue.add(new EmailClientPass(), notification);
+
+        assertInstanceOf(Failure.class, result);
+        assertInstanceOf(AddressException.class, ((Failure<EmailNotification>) result).exception());
+
+        queue.shutdown();
+    }
+
+    static EmailNotification createHtmlNotification(String subject) {
+        return new EmailNotification.EmailNotificationBuilder()
+                .from("from@example.com")
+                .subject("Test" + subject)
+                .body("Test")
+                .html(true)
+                .to(List.of("to@example.com"))
+                .build();
+    }
+
     private static EmailNotification createNotification(String subject) {
         return new EmailNotification.EmailNotificationBuilder()
                 .from(fromEmail)
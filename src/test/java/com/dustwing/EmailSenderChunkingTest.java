@@ -0,0 +1,115 @@
+package com.dustwing;
+
+import com.dustwing.result.Failure;
+import com.dustwing.result.Result;
+import com.dustwing.result.Success;
+import com.dustwing.smtp.FakeSmtpServer;
+import com.dustwing.transport.TransportPool;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.Properties;
+
+import static com.dustwing.MultiRelayEmailSenderTest.closedPortProperties;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+class EmailSenderChunkingTest {
+
+    @Test
+    void testRecipientsSplitIntoChunks() throws Exception {
+
+        final EmailNotification notification = new EmailNotification.EmailNotificationBuilder()
+                .from("from@example.com")
+                .subject("Chunks")
+                .body("Test")
+                .html(true)
+                .to(List.of("a@example.com", "b@example.com", "c@example.com"))
+                .bcc(List.of("d@example.com", "e@example.com"))
+                .build();
+
+        try (EmailSender sender = EmailSender.builder()
+                .properties(closedPortProperties())
+                .withTransportPool(TransportPool.builder().maxTotal(3))
+                .maxRecipientsPerMessage(2)
+                .build()) {
+
+            final Result<EmailNotification> result = sender.send(notification);
+
+            assertInstanceOf(Failure.class, result);
+            final PartialDeliveryException partial = assertInstanceOf(
+                    PartialDeliveryException.class, ((Failure<EmailNotification>) result).exception()
+            );
+
+            final List<Result<List<String>>> chunks = partial.getChunks();
+            assertEquals(3, chunks.size());
+            assertEquals(List.of("a@example.com", "b@example.com"), ((Failure<List<String>>) chunks.get(0)).value());
+            assertEquals(List.of("c@example.com", "d@example.com"), ((Failure<List<String>>) chunks.get(1)).value());
+            assertEquals(List.of("e@example.com"), ((Failure<List<String>>) chunks.get(2)).value());
+        }
+    }
+
+    @Test
+    void testPooledBatchSendsChunksOverItsConnection() throws Exception {
+
+        final EmailNotification chunked = new EmailNotification.EmailNotificationBuilder()
+                .from("from@example.com")
+                .subject("Chunks")
+                .body("Test")
+                .html(true)
+                .to(List.of("a@example.com", "b@example.com", "c@example.com", "d@example.com", "e@example.com"))
+                .build();
+
+        try (FakeSmtpServer server = FakeSmtpServer.builder().start();
+             EmailSender sender = EmailSender.builder()
+                     .properties(server.properties())
+                     .withTransportPool(TransportPool.builder().maxTotal(1).borrowTimeout(Duration.ofSeconds(2)))
+                     .maxRecipientsPerMessage(2)
+                     .build()) {
+
+            //the batch holds the only connection, the chunks must not wait for another one
+            final List<Result<EmailNotification>> results = sender.sendBatch(List.of(
+                    EmailClientQueueTest.createHtmlNotification("Before"),
+                    chunked,
+                    EmailClientQueueTest.createHtmlNotification("After")
+            ));
+
+            for (Result<EmailNotification> result : results) {
+                assertInstanceOf(Success.class, result);
+            }
+            assertEquals(5, server.getMessages().size());
+            assertEquals(1, server.getConnections());
+        }
+    }
+
+    @Test
+    void testStreamedChunksBuildTheirOwnMessage() throws Exception {
+
+        final EmailNotification notification = new EmailNotification.EmailNotificationBuilder()
+                .from("from@example.com")
+                .subject("Chunks")
+                .body("Test")
+                .html(true)
+                .to(List.of("a@example.com", "b@example.com", "c@example.com"))
+                .attachments(List.of(new EmailAttachment(
+                        "streamed.bin",
+                        "application/octet-stream",
+                        AttachmentSource.ofStream(() -> new ByteArrayInputStream(new byte[]{1, 2, 3}))
+                )))
+                .build();
+
+        final EmailSender sender = new EmailSender(Session.getInstance(new Properties()));
+        final ChunkedMessage message = ChunkedMessage.of(notification, () -> sender.buildMessage(notification, sender.session));
+
+        //chunks are sent in parallel, they must not write the same instance
+        final MimeMessage first = message.forChunk(sender.session);
+        final MimeMessage second = message.forChunk(sender.session);
+        assertNotSame(first, second);
+        assertEquals(first.getMessageID(), second.getMessageID());
+    }
+}
@@ -0,0 +1,95 @@
+package com.dustwing;
+
+import com.dustwing.template.EmailTemplate;
+import com.dustwing.template.EmailTemplateException;
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EmailTemplateTest {
+
+    private final Session session = Session.getInstance(new Properties());
+
+    @Test
+    void testRenderWithAttachment() throws Exception {
+
+        final byte[] pdf = "%PDF-1.4 report".getBytes(StandardCharsets.US_ASCII);
+
+        final EmailTemplate template = EmailTemplate.builder()
+                .from("from@example.com")
+                .subject("Hello {{name}}")
+                .body("<p>Dear {{ name }}, your code is {{code}}</p>")
+                .html(true)
+                .attachments(List.of(new EmailAttachment("report.pdf", pdf, "application/pdf")))
+                .compile();
+
+        final MimeMessage parsed = roundTrip(template.render(
+                session, List.of("ana@example.com"), Map.of("name", "Ana <3", "code", "42")
+        ));
+
+        assertEquals("Hello Ana <3", parsed.getSubject());
+        assertArrayEquals(new InternetAddress[]{new InternetAddress("ana@example.com")}, parsed.getRecipients(Message.RecipientType.TO));
+
+        final MimeMultipart multipart = (MimeMultipart) parsed.getContent();
+        assertEquals(2, multipart.getCount());
+        assertEquals("<p>Dear Ana &lt;3, your code is 42</p>", multipart.getBodyPart(0).getContent());
+        assertEquals("report.pdf", multipart.getBodyPart(1).getFileName());
+        try (InputStream in = multipart.getBodyPart(1).getInputStream()) {
+            assertArrayEquals(pdf, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void testRenderSinglePart() throws Exception {
+
+        final EmailTemplate template = EmailTemplate.builder()
+                .from("from@example.com")
+                .subject("C\u00f3digo {{code}}")
+                .body("Your code is {{code}}")
+                .compile();
+
+        final MimeMessage parsed = roundTrip(template.render(session, List.of("to@example.com"), Map.of("code", "7")));
+
+        assertEquals("C\u00f3digo 7", parsed.getSubject());
+        assertEquals("Your code is 7", parsed.getContent());
+    }
+
+    @Test
+    void testMissingValue() throws Exception {
+
+        final EmailTemplate template = EmailTemplate.builder()
+                .from("from@example.com")
+                .subject("Hello {{name}}")
+                .body("body")
+                .compile();
+
+        assertThrows(EmailTemplateException.class, () -> template.render(session, List.of("to@example.com"), Map.of()));
+        assertThrows(EmailTemplateException.class, () -> EmailTemplate.builder()
+                .from("from@example.com")
+                .subject("Hello {{name")
+                .body("body")
+                .compile());
+    }
+
+    private MimeMessage roundTrip(MimeMessage message) throws Exception {
+        message.saveChanges();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out);
+        return new MimeMessage(session, new ByteArrayInputStream(out.toByteArray()));
+    }
+}
@@ -0,0 +1,299 @@
+package com.dustwing;
+
+import com.dustwing.policy.PolicyEnforcer;
+import com.dustwing.policy.retry.RetryPolicy;
+import com.dustwing.queue.EmailBlockingQueue;
+import com.dustwing.result.Failure;
+import com.dustwing.result.Result;
+import com.dustwing.result.Success;
+import com.dustwing.smtp.FakeSmtpServer;
+import com.dustwing.smtp.ReceivedMessage;
+import com.dustwing.transport.TransportPool;
+import jakarta.mail.MessagingException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Sends to an in-process SMTP server, so these run without a network.
+ */
+class FakeSmtpServerTest {
+
+    @Test
+    void testSend() throws IOException {
+
+        try (FakeSmtpServer server = FakeSmtpServer.builder().start()) {
+
+            final EmailSender sender = EmailSender.builder().properties(server.properties()).build();
+
+            assertInstanceOf(Success.class, sender.send(EmailClientQueueTest.createHtmlNotification("Fake")));
+
+            final List<ReceivedMessage> messages = server.getMessages();
+            assertEquals(1, messages.size());
+            assertEquals("from@example.com", messages.get(0).from());
+            assertEquals(List.of("to@example.com"), messages.get(0).recipients());
+            assertTrue(messages.get(0).content().contains("Subject: TestFake"));
+        }
+    }
+
+    @Test
+    void testAuth() throws IOException {
+
+        try (FakeSmtpServer server = FakeSmtpServer.builder().credentials("user", "secret").start()) {
+
+            final EmailSender good = EmailSender.builder()
+                    .properties(server.properties())
+                    .credentials("user", "secret")
+                    .build();
+            assertInstanceOf(Success.class, good.send(EmailClientQueueTest.createHtmlNotification("Auth")));
+
+            final EmailSender bad = EmailSender.builder()
+                    .properties(server.properties())
+                    .credentials("user", "wrong")
+                    .build();
+            assertInstanceOf(Failure.class, bad.send(EmailClientQueueTest.createHtmlNotification("Auth")));
+
+            assertEquals(1, server.getMessages().size());
+        }
+    }
+
+    @Test
+    void testPoolReusesConnection() throws IOException {
+
+        try (FakeSmtpServer server = FakeSmtpServer.builder().start()) {
+
+            final EmailSender sender = EmailSender.builder()
+                    .properties(server.properties())
+                    .withTransportPool(TransportPool.builder().maxTotal(1))
+                    .build();
+
+            for (int i = 0; i < 5; i++) {
+                assertInstanceOf(Success.class, sender.send(EmailClientQueueTest.createHtmlNotification("Pool" + i)));
+            }
+
+            assertEquals(5, server.getMessages().size());
+            assertEquals(1, server.getConnections());
+
+            sender.close();
+        }
+    }
+
+    @Test
+    void testPoolReconnectsAfterDrop() throws IOException {
+
+        try (FakeSmtpServer server = FakeSmtpServer.builder().start()) {
+
+            final EmailSender sender = EmailSender.builder()
+                    .properties(server.properties())
+                    .withTransportPool(TransportPool.builder().maxTotal(1))
+                    .build();
+
+            assertInstanceOf(Success.class, sender.send(EmailClientQueueTest.createHtmlNotification("Before")));
+
+            server.dropNext("MAIL");
+
+            assertInstanceOf(Success.class, sender.send(EmailClientQueueTest.createHtmlNotification("After")));
+            assertEquals(2, server.getMessages().size());
+            assertEquals(2, server.getConnections());
+
+            sender.close();
+        }
+    }
+
+    @Test
+    void testRetryOnTransientFailure() throws IOException {
+
+        try (FakeSmtpServer server = FakeSmtpServer.builder().start()) {
+
+            final EmailSender sender = EmailSender.builder().properties(server.properties()).build();
+
+            final RetryPolicy retryPolicy = RetryPolicy.builder()
+                    .withDelay(TimeUnit.MILLISECONDS, 10)
+                    .withMaxRetries(2)
+                    .handle(List.of(MessagingException.class))
+                    .build();
+
+            final PolicyEnforcer<EmailNotification> enforcer = PolicyEnforcer.<EmailNotification, Boolean>builder()
+                    .retry(retryPolicy)
+                    .build();
+
+            server.failNext("DATA", 451);
+
+            final Result<EmailNotification> result = enforcer.run(sender::send, EmailClientQueueTest.createHtmlNotification("Retry"));
+
+            assertInstanceOf(Success.class, result);
+            assertEquals(2, server.getCommandCount("DATA"));
+            assertEquals(1, server.getMessages().size());
+        }
+    }
+
+    @Test
+    void testSizeLimit() throws IOException {
+
+        try (FakeSmtpServer server = FakeSmtpServer.builder().maxSize(1024).start()) {
+
+            final EmailSender sender = EmailSender.builder().properties(server.properties()).build();
+
+            final EmailNotification large = new EmailNotification.EmailNotificationBuilder()
+                    .from("from@example.com")
+                    .subject("Large")
+                    .body("x".repeat(4096))
+                    .html(true)
+                    .to(List.of("to@example.com"))
+                    .build();
+
+            assertInstanceOf(Failure.class, sender.send(large));
+            assertTrue(server.getMessages().isEmpty());
+        }
+    }
+
+    @Test
+    void testChunking() throws IOException {
+
+        try (FakeSmtpServer server = FakeSmtpServer.builder().start()) {
+
+            final EmailSender sender = EmailSender.builder()
+                    .properties(server.properties())
+                    .maxRecipientsPerMessage(2)
+                    .build();
+
+            final List<String> to = List.of("a@example.com", "b@example.com", "c@example.com", "d@example.com", "e@example.com");
+            final EmailNotification notification = new EmailNotification.EmailNotificationBuilder()
+                    .from("from@example.com")
+                    .subject("Chunked")
+                    .body("Test")
+                    .html(true)
+                    .to(to)
+                    .build();
+
+            assertInstanceOf(Success.class, sender.send(notification));
+
+            final Set<String> received = new HashSet<>();
+            for (ReceivedMessage message : server.getMessages()) {
+                assertTrue(message.recipients().size() <= 2);
+                received.addAll(message.recipients());
+            }
+            assertEquals(3, server.getMessages().size());
+            assertEquals(Set.copyOf(to), received);
+        }
+    }
+
+    @Test
+    void testChunkingStreamsAttachments() throws IOException {
+
+        try (FakeSmtpServer server = FakeSmtpServer.builder().start()) {
+
+            final EmailSender sender = EmailSender.builder()
+                    .properties(server.properties())
+                    .maxRecipientsPerMessage(2)
+                    .withTransportPool(TransportPool.builder().maxTotal(2))
+                    .build();
+
+            final AtomicInteger opened = new AtomicInteger();
+            final byte[] content = "streamed attachment".getBytes(StandardCharsets.UTF_8);
+            final EmailAttachment attachment = new EmailAttachment(
+                    "streamed.bin",
+                    "application/octet-stream",
+                    AttachmentSource.ofStream(() -> {
+                        opened.incrementAndGet();
+                        return new ByteArrayInputStream(content);
+                    })
+            );
+
+            final EmailNotification notification = new EmailNotification.EmailNotificationBuilder()
+                    .from("from@example.com")
+                    .subject("Chunked")
+                    .body("Test")
+                    .html(true)
+                    .to(List.of("a@example.com", "b@example.com", "c@example.com", "d@example.com", "e@example.com"))
+                    .attachments(List.of(attachment))
+                    .build();
+
+            assertInstanceOf(Success.class, sender.send(notification));
+
+            //read again for every chunk instead of held in memory for all of them
+            assertEquals(3, opened.get());
+            assertEquals(3, server.getMessages().size());
+            final Set<String> messageIds = new HashSet<>();
+            for (ReceivedMessage message : server.getMessages()) {
+                assertTrue(message.content().contains("c3RyZWFtZWQgYXR0YWNobWVudA=="));
+                messageIds.add(message.content().lines().filter(l -> l.startsWith("Message-ID:")).findFirst().orElseThrow());
+            }
+            assertEquals(1, messageIds.size());
+            assertTrue(server.getConnections() <= 2);
+
+            sender.close();
+        }
+    }
+
+    @Test
+    void testQueueThroughputWithLatency() throws IOException, InterruptedException {
+
+        final int count = 200;
+
+        try (FakeSmtpServer server = FakeSmtpServer.builder().latency(Duration.ofMillis(1)).start()) {
+
+            final EmailSender sender = EmailSender.builder()
+                    .properties(server.properties())
+                    .withTransportPool(TransportPool.builder().maxTotal(4))
+                    .build();
+
+            final EmailBlockingQueue queue = EmailBlockingQueue.builder().workers(4).build();
+            queue.start();
+
+            for (int i = 0; i < count; i++) {
+                assertInstanceOf(Success.class, queue.add(sender, EmailClientQueueTest.createHtmlNotification("Load" + i)));
+            }
+
+            assertTrue(server.awaitMessages(count, Duration.ofSeconds(30)));
+            assertTrue(server.getConnections() <= 4);
+
+            queue.shutdown();
+            sender.close();
+        }
+    }
+
+    @Test
+    void testRandomFaultsAreRetried() throws IOException {
+
+        final int count = 20;
+
+        try (FakeSmtpServer server = FakeSmtpServer.builder()
+                .faultCommands("DATA")
+                .transientFailureRate(0.3)
+                .seed(7)
+                .start()) {
+
+            final EmailSender sender = EmailSender.builder().properties(server.properties()).build();
+
+            final RetryPolicy retryPolicy = RetryPolicy.builder()
+                    .withDelay(TimeUnit.MILLISECONDS, 1)
+                    .withMaxRetries(10)
+                    .handle(List.of(MessagingException.class))
+                    .build();
+
+            final PolicyEnforcer<EmailNotification> enforcer = PolicyEnforcer.<EmailNotification, Boolean>builder()
+                    .retry(retryPolicy)
+                    .build();
+
+            for (int i = 0; i < count; i++) {
+                assertInstanceOf(Success.class, enforcer.run(sender::send, EmailClientQueueTest.createHtmlNotification("Random" + i)));
+            }
+
+            assertEquals(count, server.getMessages().size());
+            assertTrue(server.getCommandCount("DATA") > count);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.dustwing;
+
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InlineImageCacheTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testEncodedOnce() throws Exception {
+
+        final File logo = Files.write(directory.resolve("logo.png"), new byte[]{1, 2, 3, 4, 5}).toFile();
+
+        final InlineImageCache cache = new InlineImageCache(1024);
+        final EmailSender sender = EmailSender.builder()
+                .session(Session.getInstance(new Properties()))
+                .withInlineImageCache(cache)
+                .build();
+
+        final String first = write(sender, logo);
+        write(sender, logo);
+
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertTrue(first.contains("Content-ID: <logo>"));
+        assertTrue(first.contains(Base64.getEncoder().encodeToString(new byte[]{1, 2, 3, 4, 5})));
+
+        //a changed file is read again
+        Files.write(logo.toPath(), new byte[]{6, 7, 8});
+        Files.setLastModifiedTime(logo.toPath(), FileTime.fromMillis(logo.lastModified() + 1000));
+        write(sender, logo);
+
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void testEvictsByBytes() throws Exception {
+
+        //each image encodes to 8 bytes
+        final InlineImageCache cache = new InlineImageCache(20);
+
+        for (int i = 0; i < 3; i++) {
+            final File image = Files.write(directory.resolve(i + ".png"), new byte[]{1, 2, 3, 4, 5}).toFile();
+            cache.createPart(image);
+        }
+
+        assertEquals(2, cache.size());
+        assertEquals(16, cache.getTotalBytes());
+    }
+
+    private static String write(EmailSender sender, File image) throws Exception {
+
+        final EmailNotification notification = new EmailNotification.EmailNotificationBuilder()
+                .from("from@example.com")
+                .subject("image")
+                .body("<img src=\"cid:logo\">")
+                .html(true)
+                .to(List.of("to@example.com"))
+                .images(Map.of("logo", image))
+                .build();
+
+        final Message message = sender.buildMessage(notification, sender.session);
+        message.saveChanges();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out);
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+}
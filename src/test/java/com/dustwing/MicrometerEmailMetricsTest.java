@@ -0,0 +1,161 @@
+package com.dustwing;
+
+import com.dustwing.metrics.micrometer.MicrometerEmailMetrics;
+import com.dustwing.policy.PolicyEnforcer;
+import com.dustwing.policy.retry.RetryPolicy;
+import com.dustwing.policy.validate.SpamPolicy;
+import com.dustwing.queue.EmailBlockingQueue;
+import com.dustwing.result.Failure;
+import com.dustwing.result.Success;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MicrometerEmailMetricsTest {
+
+    @Test
+    void testQueue() throws InterruptedException {
+
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        final EmailBlockingQueue queue = EmailBlockingQueue.builder()
+                .metrics(new MicrometerEmailMetrics(registry))
+                .build();
+
+        final CountDownLatch sent = new CountDownLatch(3);
+        final IEmailSender<EmailNotification> sender = notification -> {
+            sent.countDown();
+            return new Success<>(notification);
+        };
+
+        queue.start();
+
+        for (int i = 0; i < 3; i++) {
+            assertInstanceOf(Success.class, queue.add(sender, EmailClientQueueTest.createHtmlNotification("Metrics" + i)));
+        }
+
+        final EmailNotification invalid = new EmailNotification.EmailNotificationBuilder()
+                .from("from@example.com")
+                .subject("Invalid")
+                .body("Test")
+                .html(true)
+                .to(List.of("not an address"))
+                .build();
+        assertInstanceOf(Failure.class, queue.add(sender, invalid));
+
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        assertEquals(0, registry.get("email.queue.depth").gauge().value());
+        queue.shutdown();
+
+        assertEquals(3, registry.get("email.queue.enqueued").counter().count());
+        assertEquals(1, registry.get("email.queue.rejected").counter().count());
+        assertEquals(3, registry.get("email.queue.dequeued").counter().count());
+        assertEquals(3, registry.get("email.queue.wait").timer().count());
+    }
+
+    @Test
+    void testTimersPublishHistograms() {
+
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        final Map<String, Boolean> histograms = new ConcurrentHashMap<>();
+        registry.config().meterFilter(new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                histograms.merge(id.getName(), Boolean.TRUE.equals(config.isPercentileHistogram()), Boolean::logicalAnd);
+                return config;
+            }
+        });
+
+        new MicrometerEmailMetrics(registry);
+
+        assertEquals(
+                Map.of("email.send.build", true, "email.send.connect", true, "email.send.transmit", true, "email.queue.wait", true),
+                histograms
+        );
+    }
+
+    @Test
+    void testShutdownQueueStopsReportingDepth() throws InterruptedException {
+
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        final MicrometerEmailMetrics metrics = new MicrometerEmailMetrics(registry);
+
+        final EmailBlockingQueue stopped = EmailBlockingQueue.builder().workers(2).metrics(metrics).build();
+        final EmailBlockingQueue running = EmailBlockingQueue.builder().metrics(metrics).build();
+        running.pause();
+
+        final IEmailSender<EmailNotification> sender = Success::new;
+        for (int i = 0; i < 2; i++) {
+            assertInstanceOf(Success.class, stopped.add(sender, EmailClientQueueTest.createHtmlNotification("Stopped" + i)));
+        }
+        assertInstanceOf(Success.class, running.add(sender, EmailClientQueueTest.createHtmlNotification("Running")));
+        assertEquals(3, registry.get("email.queue.depth").gauge().value());
+
+        //neither its unsent items nor its stop markers count once it is shut down
+        stopped.shutdown();
+        assertEquals(1, registry.get("email.queue.depth").gauge().value());
+
+        running.shutdown();
+        assertEquals(0, registry.get("email.queue.depth").gauge().value());
+    }
+
+    @Test
+    void testRetryAndValidation() {
+
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        final MicrometerEmailMetrics metrics = new MicrometerEmailMetrics(registry);
+
+        final RetryPolicy retryPolicy = RetryPolicy.builder()
+                .withDelay(TimeUnit.MILLISECONDS, 1)
+                .withMaxRetries(2)
+                .handle(List.of(EmailException.class))
+                .withMetrics(metrics)
+                .build();
+
+        final PolicyEnforcer<EmailNotification> enforcer = PolicyEnforcer.<EmailNotification, Boolean>builder()
+                .withValidations(List.of(new SpamPolicy(Duration.ofMinutes(1))))
+                .retry(retryPolicy)
+                .withMetrics(metrics)
+                .build();
+
+        final EmailNotification notification = EmailClientQueueTest.createHtmlNotification("Retry");
+        final EmailClientError client = new EmailClientError();
+
+        assertInstanceOf(Failure.class, enforcer.run(client::send, notification));
+        assertInstanceOf(Failure.class, enforcer.run(client::send, notification));
+
+        assertEquals(2, registry.get("email.retry").tag("reason", "EmailException").counter().count());
+        assertEquals(1, registry.get("email.validation.rejected").tag("policy", "SpamPolicy").counter().count());
+    }
+
+    @Test
+    void testSendPhases() throws IOException {
+
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        final EmailSender sender = EmailSender.builder()
+                .properties(MultiRelayEmailSenderTest.closedPortProperties())
+                .withMetrics(new MicrometerEmailMetrics(registry))
+                .build();
+
+        assertInstanceOf(Failure.class, sender.send(EmailClientQueueTest.createHtmlNotification("Phases")));
+
+        assertEquals(1, registry.get("email.send.build").tag("outcome", "failure").timer().count());
+        assertEquals(1, registry.get("email.send.connect").tag("outcome", "failure").timer().count());
+        assertEquals(0, registry.get("email.send.transmit").tag("outcome", "failure").timer().count());
+    }
+}
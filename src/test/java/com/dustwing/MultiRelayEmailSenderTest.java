@@ -0,0 +1,106 @@
+package com.dustwing;
+
+import com.dustwing.result.Failure;
+import com.dustwing.result.Success;
+import com.dustwing.smtp.FakeSmtpServer;
+import com.dustwing.transport.TransportPool;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.Properties;
+
+import static com.dustwing.EmailClientQueueTest.createHtmlNotification;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MultiRelayEmailSenderTest {
+
+    @Test
+    void testFailoverRanksFailingRelaysLast() throws IOException {
+
+        try (MultiRelayEmailSender sender = MultiRelayEmailSender.builder()
+                .relay("first", relayOnClosedPort())
+                .relay("second", relayOnClosedPort())
+                .probeRatio(0)
+                .hedge(Duration.ofMillis(10))
+                .build()) {
+
+            assertInstanceOf(Failure.class, sender.send(createHtmlNotification("multi relay")));
+
+            //both relays were tried and both recorded the error
+            final MultiRelayEmailSender.Relay[] ranked = sender.rank();
+            assertEquals(2, ranked.length);
+            for (MultiRelayEmailSender.Relay relay : ranked) {
+                assertTrue(relay.errorRate() > 0, relay.name());
+            }
+        }
+    }
+
+    @Test
+    void testHealthyRelayRanksAheadOfFailingOne() throws IOException {
+
+        //the healthy relay is much slower than a refused connection
+        try (FakeSmtpServer server = FakeSmtpServer.builder().latency(Duration.ofMillis(20)).start();
+             MultiRelayEmailSender sender = MultiRelayEmailSender.builder()
+                     .relay("down", relayOnClosedPort())
+                     .relay("healthy", EmailSender.builder().properties(server.properties()).build())
+                     .probeRatio(0)
+                     .build()) {
+
+            for (int i = 0; i < 5; i++) {
+                assertInstanceOf(Success.class, sender.send(createHtmlNotification("healthy" + i)));
+            }
+
+            assertEquals("healthy", sender.rank()[0].name());
+            assertEquals(5, server.getMessages().size());
+        }
+    }
+
+    @Test
+    void testHedgesSlowConnect() throws IOException {
+
+        try (FakeSmtpServer slow = FakeSmtpServer.builder().latency("CONNECT", Duration.ofMillis(500)).start();
+             FakeSmtpServer fast = FakeSmtpServer.builder().start();
+             MultiRelayEmailSender sender = MultiRelayEmailSender.builder()
+                     .relay("slow", EmailSender.builder().properties(slow.properties()).build())
+                     .relay("fast", EmailSender.builder().properties(fast.properties()).build())
+                     .probeRatio(0)
+                     .hedge(Duration.ofMillis(50))
+                     .build()) {
+
+            //no history yet, so the slow relay is first and its greeting is far past the hedge delay
+            assertInstanceOf(Success.class, sender.send(createHtmlNotification("hedged")));
+
+            assertEquals(1, sender.getHedged());
+            assertEquals(1, fast.getMessages().size());
+            assertTrue(slow.getMessages().isEmpty());
+        }
+    }
+
+    private static EmailSender relayOnClosedPort() throws IOException {
+        return EmailSender.builder()
+                .properties(closedPortProperties())
+                .withTransportPool(TransportPool.builder().maxTotal(2))
+                .build();
+    }
+
+    /**
+     * Properties of a relay that refuses connections.
+     */
+    static Properties closedPortProperties() throws IOException {
+
+        final int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        final Properties props = new Properties();
+        props.put("mail.smtp.host", "localhost");
+        props.put("mail.smtp.port", String.valueOf(port));
+        props.put("mail.smtp.connectiontimeout", "1000");
+        return props;
+    }
+}
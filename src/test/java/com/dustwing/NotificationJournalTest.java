@@ -0,0 +1,191 @@
+package com.dustwing;
+
+import com.dustwing.queue.EmailBlockingQueue;
+import com.dustwing.queue.OverflowPolicy;
+import com.dustwing.queue.journal.JournalEntry;
+import com.dustwing.queue.journal.NotificationJournal;
+import com.dustwing.result.Failure;
+import com.dustwing.result.Success;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NotificationJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testRecoverUncommitted() throws Exception {
+
+        final EmailNotification first = createNotification("first");
+        final EmailNotification second = createNotification("second");
+        final EmailNotification third = createNotification("third");
+
+        try (NotificationJournal journal = NotificationJournal.builder().directory(directory).open()) {
+            journal.append(first);
+            final long seq = journal.append(second);
+            journal.append(third);
+            journal.commit(seq);
+        }
+
+        try (NotificationJournal journal = NotificationJournal.builder().directory(directory).open()) {
+            final List<JournalEntry> entries = journal.recover();
+
+            assertEquals(2, entries.size());
+            assertEquals(first, entries.get(0).notification());
+            assertEquals(third, entries.get(1).notification());
+        }
+    }
+
+    @Test
+    void testCommittedSegmentsDeleted() throws Exception {
+
+        try (NotificationJournal journal = NotificationJournal.builder().directory(directory).segmentSize(1024).open()) {
+            for (int i = 0; i < 50; i++) {
+                journal.commit(journal.append(createNotification(String.valueOf(i))));
+            }
+
+            assertTrue(segmentCount() <= 2);
+        }
+
+        try (NotificationJournal journal = NotificationJournal.builder().directory(directory).open()) {
+            assertTrue(journal.recover().isEmpty());
+        }
+    }
+
+    @Test
+    void testFailedSendsDoNotPinSegments() throws Exception {
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try (NotificationJournal journal = NotificationJournal.builder().directory(directory).segmentSize(1024).open()) {
+
+            final EmailBlockingQueue queue = EmailBlockingQueue.builder()
+                    .executor(executor)
+                    .journal(journal, new EmailClientError())
+                    .build();
+            queue.start();
+
+            final CountDownLatch tried = new CountDownLatch(50);
+            final IEmailSender<EmailNotification> failing = notification -> {
+                tried.countDown();
+                return new Failure<>(notification, new EmailException("Rejected"));
+            };
+
+            for (int i = 0; i < 50; i++) {
+                queue.add(failing, createNotification(String.valueOf(i)));
+            }
+
+            assertTrue(tried.await(10, TimeUnit.SECONDS));
+
+            //waits for the commit of the last one
+            queue.shutdown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+            assertTrue(segmentCount() <= 2);
+        }
+
+        try (NotificationJournal journal = NotificationJournal.builder().directory(directory).open()) {
+            assertTrue(journal.recover().isEmpty());
+        }
+    }
+
+    @Test
+    void testReplayFollowsOverflowPolicy() throws Exception {
+
+        try (NotificationJournal journal = NotificationJournal.builder().directory(directory).open()) {
+            for (int i = 0; i < 5; i++) {
+                journal.append(createNotification(String.valueOf(i)));
+            }
+        }
+
+        final AtomicInteger sent = new AtomicInteger();
+        final IEmailSender<EmailNotification> replaySender = notification -> {
+            sent.incrementAndGet();
+            return new Success<>(notification);
+        };
+
+        try (NotificationJournal journal = NotificationJournal.builder().directory(directory).open()) {
+
+            //paused so nothing leaves the queue of one while replaying
+            final EmailBlockingQueue queue = EmailBlockingQueue.builder()
+                    .capacity(1)
+                    .overflow(OverflowPolicy.CALLER_RUNS)
+                    .journal(journal, replaySender)
+                    .build();
+            queue.pause();
+
+            assertTimeoutPreemptively(Duration.ofSeconds(5), queue::start);
+            assertTrue(sent.get() >= 4);
+
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    void testRecoverAttachments() throws Exception {
+
+        final Path file = Files.writeString(directory.resolve("report.txt"), "report");
+
+        final EmailNotification notification = new EmailNotification.EmailNotificationBuilder()
+                .from("from@example.com")
+                .subject("attachments")
+                .body("<p>attachments</p>")
+                .html(true)
+                .to(List.of("to@example.com"))
+                .attachments(List.of(
+                        EmailAttachment.ofPath(file, "text/plain"),
+                        new EmailAttachment("inline.txt", "inline".getBytes(StandardCharsets.UTF_8), "text/plain")
+                ))
+                .build();
+
+        final Path journalDirectory = directory.resolve("journal");
+
+        try (NotificationJournal journal = NotificationJournal.builder().directory(journalDirectory).open()) {
+            journal.append(notification);
+        }
+
+        try (NotificationJournal journal = NotificationJournal.builder().directory(journalDirectory).open()) {
+            final List<EmailAttachment> attachments = List.copyOf(journal.recover().get(0).notification().attachments());
+
+            //file backed attachments are stored by path, not by content
+            assertEquals(AttachmentSource.ofPath(file), attachments.get(0).source());
+            assertEquals("inline", new String(attachments.get(1).content(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private long segmentCount() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static EmailNotification createNotification(String subject) {
+        return new EmailNotification.EmailNotificationBuilder()
+                .id(subject)
+                .from("from@example.com")
+                .subject(subject)
+                .body("<p>" + subject + "</p>")
+                .html(true)
+                .to(List.of("to@example.com"))
+                .cc(List.of("cc@example.com"))
+                .build();
+    }
+}
@@ -1,17 +1,38 @@
 package com.dustwing;
 
+import com.dustwing.metrics.EmailMetrics;
 import com.dustwing.policy.PolicyEnforcer;
+import com.dustwing.policy.bulkhead.Bulkhead;
+import com.dustwing.policy.bulkhead.BulkheadFullException;
+import com.dustwing.policy.circuit.CircuitBreaker;
+import com.dustwing.policy.circuit.CircuitBreakerOpenException;
+import com.dustwing.policy.retry.Backoff;
+import com.dustwing.policy.retry.RetryBudget;
 import com.dustwing.policy.retry.RetryPolicy;
 import com.dustwing.policy.validate.SpamPolicy;
 import com.dustwing.result.Failure;
+import com.dustwing.result.Result;
+import com.dustwing.result.Success;
+import com.dustwing.transport.TransportPoolException;
 import org.junit.jupiter.api.Test;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertThrowsExactly;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 
@@ -139,4 +160,276 @@ public class PolicyEnforcerTest {
         }
 
     }
+
+    @Test
+    void testAsyncRetry() throws ExecutionException, InterruptedException {
+        EmailNotification notification = new EmailNotification.EmailNotificationBuilder()
+                .from("fromEmail")
+                .subject("PolicyEnforcerTestAsyncRetry")
+                .body("PolicyEnforcerTestAsyncRetry")
+                .html(true)
+                .to(List.of(""))
+                .build();
+
+        var calls = new AtomicInteger();
+        var clientError = new EmailClientError();
+        var clientPass = new EmailClientPass();
+
+        Function<EmailNotification, Result<EmailNotification>> flaky = n ->
+                calls.incrementAndGet() < 3 ? clientError.send(n) : clientPass.send(n);
+
+        RetryPolicy retryPolicy = RetryPolicy.builder()
+                .withDelay(TimeUnit.MILLISECONDS, 100)
+                .withMaxRetries(3)
+                .handle(List.of(EmailException.class))
+                .build();
+
+        PolicyEnforcer<EmailNotification> enforcer = PolicyEnforcer.<EmailNotification, Boolean>builder()
+                .retry(retryPolicy)
+                .build();
+
+        var result = enforcer.runAsync(flaky, notification).get();
+
+        assertInstanceOf(Success.class, result);
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void testRetryBudget() {
+        EmailNotification notification = new EmailNotification.EmailNotificationBuilder()
+                .from("fromEmail")
+                .subject("PolicyEnforcerTestRetryBudget")
+                .body("PolicyEnforcerTestRetryBudget")
+                .html(true)
+                .to(List.of(""))
+                .build();
+
+        var calls = new AtomicInteger();
+        var client = new EmailClientError();
+
+        RetryPolicy retryPolicy = RetryPolicy.builder()
+                .withDelay(TimeUnit.MILLISECONDS, 10)
+                .withBackoff(Backoff.DECORRELATED_JITTER, Duration.ofMillis(50))
+                .withMaxRetries(5)
+                .withBudget(new RetryBudget(0, 1))
+                .handle(List.of(EmailException.class))
+                .build();
+
+        PolicyEnforcer<EmailNotification> enforcer = PolicyEnforcer.<EmailNotification, Boolean>builder()
+                .retry(retryPolicy)
+                .build();
+
+        var result = enforcer.run(n -> {
+            calls.incrementAndGet();
+            return client.send(n);
+        }, notification);
+
+        assertInstanceOf(Failure.class, result);
+        //first attempt and the single retry the budget allows
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void testRetryHandlesSubtypesAndCauses() {
+        EmailNotification notification = new EmailNotification.EmailNotificationBuilder()
+                .from("fromEmail")
+                .subject("PolicyEnforcerTestSubtypes")
+                .body("PolicyEnforcerTestSubtypes")
+                .html(true)
+                .to(List.of(""))
+                .build();
+
+        var client = new EmailClientPass();
+
+        RetryPolicy retryPolicy = RetryPolicy.builder()
+                .withDelay(TimeUnit.MILLISECONDS, 1)
+                .withMaxRetries(1)
+                .handle(List.of(EmailException.class))
+                .handleCauses(true)
+                .build();
+
+        var subtype = RetryPolicy.retry(retryPolicy, client::send, notification, new TransportPoolException("subtype"));
+        assertInstanceOf(Success.class, subtype);
+
+        var cause = RetryPolicy.retry(retryPolicy, client::send, notification, new IllegalStateException(new EmailException("cause")));
+        assertInstanceOf(Success.class, cause);
+
+        var unhandled = RetryPolicy.retry(retryPolicy, client::send, notification, new IllegalStateException("unhandled"));
+        assertInstanceOf(Failure.class, unhandled);
+    }
+
+    @Test
+    void testCircuitBreaker() throws InterruptedException {
+        EmailNotification notification = new EmailNotification.EmailNotificationBuilder()
+                .from("fromEmail")
+                .subject("PolicyEnforcerTestCircuitBreaker")
+                .body("PolicyEnforcerTestCircuitBreaker")
+                .html(true)
+                .to(List.of(""))
+                .build();
+
+        var calls = new AtomicInteger();
+        var failing = new EmailClientError();
+        var passing = new EmailClientPass();
+        var relayDown = new AtomicBoolean(true);
+
+        CircuitBreaker circuitBreaker = CircuitBreaker.builder()
+                .minimumCalls(3)
+                .failureRateThreshold(0.5)
+                .waitInOpen(Duration.ofMillis(200))
+                .permittedCallsInHalfOpen(1)
+                .build();
+
+        PolicyEnforcer<EmailNotification> enforcer = PolicyEnforcer.<EmailNotification, Boolean>builder()
+                .circuitBreaker(circuitBreaker)
+                .build();
+
+        Function<EmailNotification, Result<EmailNotification>> send = n -> {
+            calls.incrementAndGet();
+            return relayDown.get() ? failing.send(n) : passing.send(n);
+        };
+
+        for (int i = 0; i < 3; i++) {
+            enforcer.run(send, notification);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        //open circuit fails fast without calling the relay
+        var result = enforcer.run(send, notification);
+        assertInstanceOf(CircuitBreakerOpenException.class, ((Failure<EmailNotification>) result).exception());
+        assertEquals(3, calls.get());
+
+        relayDown.set(false);
+        Thread.sleep(250);
+
+        //trial call closes it again
+        assertInstanceOf(Success.class, enforcer.run(send, notification));
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    void testBulkhead() throws ExecutionException, InterruptedException {
+        EmailNotification notification = new EmailNotification.EmailNotificationBuilder()
+                .from("fromEmail")
+                .subject("PolicyEnforcerTestBulkhead")
+                .body("PolicyEnforcerTestBulkhead")
+                .html(true)
+                .to(List.of(""))
+                .build();
+
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+        var bulkhead = new Bulkhead(2, 1, Duration.ofSeconds(2));
+
+        PolicyEnforcer<EmailNotification> enforcer = PolicyEnforcer.<EmailNotification, Boolean>builder()
+                .bulkhead(bulkhead)
+                .build();
+
+        Function<EmailNotification, Result<EmailNotification>> send = n -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            return new Success<>(n);
+        };
+
+        var futures = new ArrayList<CompletableFuture<Result<EmailNotification>>>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(enforcer.runAsync(send, notification));
+        }
+
+        int rejected = 0;
+        for (var future : futures) {
+            if (future.get() instanceof Failure<EmailNotification> failure) {
+                assertInstanceOf(BulkheadFullException.class, failure.exception());
+                rejected++;
+            }
+        }
+
+        //two running, one waiting, one rejected
+        assertEquals(2, maxRunning.get());
+        assertEquals(1, rejected);
+        assertEquals(1, bulkhead.getRejected());
+    }
+
+    @Test
+    void testAsyncTimeout() throws ExecutionException, InterruptedException {
+        EmailNotification notification = new EmailNotification.EmailNotificationBuilder()
+                .from("fromEmail")
+                .subject("PolicyEnforcerTestAsyncTimeout")
+                .body("PolicyEnforcerTestAsyncTimeout")
+                .html(true)
+                .to(List.of(""))
+                .build();
+
+        var interrupted = new CountDownLatch(1);
+        var executor = Executors.newSingleThreadExecutor();
+
+        PolicyEnforcer<EmailNotification> enforcer = PolicyEnforcer.<EmailNotification, Boolean>builder()
+                .build();
+
+        Function<EmailNotification, Result<EmailNotification>> hanging = n -> {
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return new Success<>(n);
+        };
+
+        try {
+            var result = enforcer.runAsync(hanging, notification, executor, Duration.ofMillis(200)).get();
+
+            assertInstanceOf(Failure.class, result);
+            assertInstanceOf(TimeoutException.class, ((Failure<EmailNotification>) result).exception());
+            assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+
+            //the interrupt did not leak into the next task
+            Function<EmailNotification, Result<EmailNotification>> check = n -> Thread.currentThread().isInterrupted()
+                    ? new Failure<>(n, new InterruptedException())
+                    : new Success<>(n);
+            assertInstanceOf(Success.class, enforcer.runAsync(check, notification, executor).get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testAsyncTimeoutCancelsScheduledRetry() throws ExecutionException, InterruptedException {
+        EmailNotification notification = new EmailNotification.EmailNotificationBuilder()
+                .from("fromEmail")
+                .subject("PolicyEnforcerTestCancelRetry")
+                .body("PolicyEnforcerTestCancelRetry")
+                .html(true)
+                .to(List.of(""))
+                .build();
+
+        var retries = new AtomicInteger();
+
+        RetryPolicy retryPolicy = RetryPolicy.builder()
+                .withDelay(TimeUnit.MILLISECONDS, 300)
+                .withMaxRetries(3)
+                .handle(List.of(EmailException.class))
+                .withMetrics(new EmailMetrics() {
+                    @Override
+                    public void onRetry(int attempt, Exception reason) {
+                        retries.incrementAndGet();
+                    }
+                })
+                .build();
+
+        PolicyEnforcer<EmailNotification> enforcer = PolicyEnforcer.<EmailNotification, Boolean>builder()
+                .retry(retryPolicy)
+                .build();
+
+        var result = enforcer.runAsync(new EmailClientError()::send, notification, Duration.ofMillis(100)).get();
+        assertInstanceOf(TimeoutException.class, ((Failure<EmailNotification>) result).exception());
+
+        //the retry due at 300ms never starts
+        Thread.sleep(500);
+        assertEquals(0, retries.get());
+    }
 }
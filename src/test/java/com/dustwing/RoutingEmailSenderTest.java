@@ -0,0 +1,130 @@
+package com.dustwing;
+
+import com.dustwing.result.Failure;
+import com.dustwing.result.Result;
+import com.dustwing.result.Success;
+import com.dustwing.smtp.FakeSmtpServer;
+import com.dustwing.transport.TransportPool;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.dustwing.MultiRelayEmailSenderTest.closedPortProperties;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RoutingEmailSenderTest {
+
+    @Test
+    void testRouteLookup() throws IOException {
+
+        try (RoutingEmailSender sender = RoutingEmailSender.builder()
+                .route("internal", relay(), 1, "corp.example.com")
+                .build()) {
+
+            assertEquals("internal", sender.routeName("corp.example.com"));
+            assertEquals("internal", sender.routeName("eu.corp.example.com"));
+            assertNull(sender.routeName("example.com"));
+        }
+    }
+
+    @Test
+    void testDomainCacheEvictsLeastRecentlyUsed() throws IOException {
+
+        try (RoutingEmailSender sender = RoutingEmailSender.builder()
+                .defaultRoute("external", relay(), 1)
+                .build()) {
+
+            sender.routeName("hot.example.com");
+            sender.routeName("cold.example.com");
+
+            for (int i = 0; i < 10_000; i++) {
+                //new domains keep being cached, the hot one stays while it is used
+                sender.routeName("hot.example.com");
+                sender.routeName("domain" + i + ".example.com");
+                assertTrue(sender.isCached("domain" + i + ".example.com"));
+            }
+
+            assertTrue(sender.isCached("hot.example.com"));
+            assertFalse(sender.isCached("cold.example.com"));
+        }
+    }
+
+    @Test
+    void testRecipientsGroupedByRoute() throws IOException {
+
+        final EmailNotification notification = new EmailNotification.EmailNotificationBuilder()
+                .from("from@example.com")
+                .subject("Routes")
+                .body("Test")
+                .html(true)
+                .to(List.of("a@corp.example.com", "x@other.org", "b@eu.corp.example.com"))
+                .cc(List.of("y@other.org"))
+                .build();
+
+        try (RoutingEmailSender sender = RoutingEmailSender.builder()
+                .route("internal", relay(), 2, "corp.example.com")
+                .defaultRoute("external", relay(), 2)
+                .build()) {
+
+            final Result<EmailNotification> result = sender.send(notification);
+
+            final PartialDeliveryException partial = assertInstanceOf(
+                    PartialDeliveryException.class, ((Failure<EmailNotification>) result).exception()
+            );
+
+            final List<Result<List<String>>> groups = partial.getChunks();
+            assertEquals(2, groups.size());
+            assertEquals(List.of("a@corp.example.com", "b@eu.corp.example.com"), ((Failure<List<String>>) groups.get(0)).value());
+            assertEquals(List.of("x@other.org", "y@other.org"), ((Failure<List<String>>) groups.get(1)).value());
+        }
+    }
+
+    @Test
+    void testSlowRouteDoesNotHoldUpFastRoute() throws Exception {
+
+        try (FakeSmtpServer slow = FakeSmtpServer.builder().latency("DATA", Duration.ofMillis(1000)).start();
+             FakeSmtpServer fast = FakeSmtpServer.builder().start();
+             RoutingEmailSender sender = RoutingEmailSender.builder()
+                     .route("slow", relay(slow.properties()), 1, "slow.example.com")
+                     .route("fast", relay(fast.properties()), 1, "fast.example.com")
+                     .build()) {
+
+            final EmailNotification notification = new EmailNotification.EmailNotificationBuilder()
+                    .from("from@example.com")
+                    .subject("Routes")
+                    .body("Test")
+                    .html(true)
+                    .to(List.of("a@slow.example.com", "b@fast.example.com"))
+                    .build();
+
+            final CompletableFuture<Result<EmailNotification>> result = sender.sendAsync(notification);
+
+            //handed off, the fast route delivers while the slow one is still in DATA
+            assertTrue(fast.awaitMessages(1, Duration.ofMillis(500)));
+            assertFalse(result.isDone());
+
+            assertInstanceOf(Success.class, result.get(5, TimeUnit.SECONDS));
+            assertEquals(1, slow.getMessages().size());
+        }
+    }
+
+    private static EmailSender relay() throws IOException {
+        return relay(closedPortProperties());
+    }
+
+    private static EmailSender relay(Properties properties) {
+        return EmailSender.builder()
+                .properties(properties)
+                .withTransportPool(TransportPool.builder().maxTotal(2))
+                .build();
+    }
+}
@@ -0,0 +1,61 @@
+package com.dustwing;
+
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SharedMimeContentTest {
+
+    private final Session session = Session.getInstance(new Properties());
+
+    @Test
+    void testOnlyRecipientsDiffer() throws Exception {
+
+        final EmailNotification notification = new EmailNotification.EmailNotificationBuilder()
+                .from("from@example.com")
+                .subject("Fan out")
+                .body("<p>same for everyone</p>")
+                .html(true)
+                .to(List.of("ignored@example.com"))
+                .bcc(List.of("hidden@example.com"))
+                .attachments(List.of(new EmailAttachment("a.txt", "shared".getBytes(StandardCharsets.UTF_8), "text/plain")))
+                .build();
+
+        final EmailSender sender = new EmailSender(session);
+        final SharedMimeContent shared = SharedMimeContent.encode(sender.buildMessage(notification, session));
+
+        final MimeMessage first = roundTrip(shared.newMessage(session, new Address[]{new InternetAddress("one@example.com")}));
+        final MimeMessage second = roundTrip(shared.newMessage(session, new Address[]{new InternetAddress("two@example.com")}));
+
+        assertArrayEquals(new Address[]{new InternetAddress("one@example.com")}, first.getRecipients(Message.RecipientType.TO));
+        assertArrayEquals(new Address[]{new InternetAddress("two@example.com")}, second.getRecipients(Message.RecipientType.TO));
+        assertNull(first.getHeader("Bcc"));
+        assertNotEquals(first.getMessageID(), second.getMessageID());
+
+        assertEquals("Fan out", second.getSubject());
+        final MimeMultipart content = (MimeMultipart) second.getContent();
+        assertEquals("<p>same for everyone</p>", content.getBodyPart(0).getContent());
+        assertEquals("shared", content.getBodyPart(1).getContent());
+    }
+
+    private MimeMessage roundTrip(MimeMessage message) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out);
+        return new MimeMessage(session, new ByteArrayInputStream(out.toByteArray()));
+    }
+}
@@ -0,0 +1,99 @@
+package com.dustwing;
+
+import com.dustwing.policy.validate.SpamPolicy;
+import com.dustwing.result.Failure;
+import com.dustwing.result.Success;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpamPolicyTest {
+
+    @Test
+    void testCoolDown() throws InterruptedException {
+
+        final SpamPolicy spamPolicy = new SpamPolicy(Duration.ofMillis(200));
+
+        assertInstanceOf(Success.class, spamPolicy.validate(createNotification("subject")));
+        assertInstanceOf(Failure.class, spamPolicy.validate(createNotification("subject")));
+        assertInstanceOf(Success.class, spamPolicy.validate(createNotification("other")));
+
+        Thread.sleep(250);
+
+        assertInstanceOf(Success.class, spamPolicy.validate(createNotification("subject")));
+    }
+
+    @Test
+    void testEvictionAndCap() throws InterruptedException {
+
+        final SpamPolicy spamPolicy = new SpamPolicy(Duration.ofMillis(100), 10);
+
+        for (int i = 0; i < 10; i++) {
+            assertInstanceOf(Success.class, spamPolicy.validate(createNotification("subject" + i)));
+        }
+
+        //the oldest subject makes room instead of the new one being rejected
+        assertInstanceOf(Success.class, spamPolicy.validate(createNotification("full")));
+        assertEquals(10, spamPolicy.size());
+        assertInstanceOf(Success.class, spamPolicy.validate(createNotification("subject0")));
+        assertInstanceOf(Failure.class, spamPolicy.validate(createNotification("subject9")));
+        assertEquals(10, spamPolicy.size());
+
+        Thread.sleep(150);
+
+        assertInstanceOf(Success.class, spamPolicy.validate(createNotification("full")));
+        assertEquals(1, spamPolicy.size());
+    }
+
+    @Test
+    void testCapHoldsUnderContention() throws InterruptedException {
+
+        final int maxEntries = 100;
+        final SpamPolicy spamPolicy = new SpamPolicy(Duration.ofMinutes(1), maxEntries);
+
+        final int threads = 8;
+        final AtomicInteger overCap = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threads);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            executor.execute(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    //new subjects mixed with repeats of recent ones
+                    spamPolicy.validate(createNotification("subject" + thread + "-" + (i % 3 == 0 ? i - 3 : i)));
+                    if (spamPolicy.size() > maxEntries) {
+                        overCap.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertEquals(0, overCap.get());
+        assertTrue(spamPolicy.size() <= maxEntries);
+    }
+
+    private static EmailNotification createNotification(String subject) {
+        return new EmailNotification.EmailNotificationBuilder()
+                .from("from@example.com")
+                .subject(subject)
+                .body("SpamPolicyTest")
+                .html(true)
+                .to(List.of("to@example.com"))
+                .build();
+    }
+}
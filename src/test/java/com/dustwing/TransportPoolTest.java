@@ -0,0 +1,90 @@
+package com.dustwing;
+
+import com.dustwing.smtp.FakeSmtpServer;
+import com.dustwing.transport.TransportLease;
+import com.dustwing.transport.TransportPool;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TransportPoolTest {
+
+    @Test
+    void testRuntimeExceptionDiscardsConnection() throws Exception {
+
+        try (FakeSmtpServer server = FakeSmtpServer.builder().start()) {
+
+            final Session session = Session.getInstance(server.properties());
+            final TransportPool pool = TransportPool.builder()
+                    .maxTotal(1)
+                    .borrowTimeout(Duration.ofMillis(500))
+                    .build(session);
+
+            final MimeMessage broken = new MimeMessage(session) {
+                @Override
+                public void writeTo(OutputStream os, String[] ignoreList) {
+                    throw new IllegalStateException("Broken message");
+                }
+            };
+            broken.setFrom("from@example.com");
+            broken.setRecipients(MimeMessage.RecipientType.TO, "to@example.com");
+            broken.setText("Broken");
+
+            try (TransportLease lease = new TransportLease(pool, false)) {
+                assertThrows(IllegalStateException.class, () -> lease.send(broken, broken.getAllRecipients()));
+            }
+
+            //the permit came back and the half written connection was not reused
+            try (TransportLease lease = new TransportLease(pool, false)) {
+                final MimeMessage message = message(session);
+                lease.send(message, message.getAllRecipients());
+            }
+
+            assertEquals(1, server.getMessages().size());
+            assertEquals(2, server.getConnections());
+
+            pool.close();
+        }
+    }
+
+    @Test
+    void testReleasedConnectionIsReused() throws Exception {
+
+        try (FakeSmtpServer server = FakeSmtpServer.builder().start()) {
+
+            final Session session = Session.getInstance(server.properties());
+            final TransportPool pool = TransportPool.builder().maxTotal(1).build(session);
+
+            for (int i = 0; i < 3; i++) {
+                try (TransportLease lease = new TransportLease(pool, false)) {
+                    final MimeMessage message = message(session);
+                    lease.send(message, message.getAllRecipients());
+                }
+            }
+
+            assertEquals(3, server.getMessages().size());
+            assertEquals(1, server.getConnections());
+            assertEquals(1, pool.idleCount());
+
+            pool.close();
+        }
+    }
+
+    private static MimeMessage message(Session session) throws MessagingException {
+        final MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress("from@example.com"));
+        message.setRecipients(MimeMessage.RecipientType.TO, "to@example.com");
+        message.setSubject("TransportPoolTest");
+        message.setText("TransportPoolTest");
+        message.saveChanges();
+        return message;
+    }
+}
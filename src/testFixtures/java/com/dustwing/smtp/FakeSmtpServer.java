@@ -0,0 +1,843 @@
+package com.dustwing.smtp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SMTP sink for tests, listening on a free local port and served by one NIO thread.
+ * <p>
+ * Speaks EHLO/HELO, AUTH PLAIN and LOGIN, MAIL with the SIZE parameter, RCPT, DATA, RSET, NOOP and QUIT,
+ * and accepts pipelined commands. Every message accepted is recorded. Responses can be delayed per
+ * command and failures injected, either at random with {@link FakeSmtpServerBuilder#seed seeded} rates
+ * or scripted with {@link #failNext} and {@link #dropNext}.
+ * <p>
+ * Commands are named by their verb. {@code CONNECT} is the greeting and {@code DATA} is the response to
+ * the message itself, after the final dot, rather than the 354 go ahead.
+ */
+public class FakeSmtpServer implements AutoCloseable {
+
+    private static final byte[] DROP = new byte[0];
+
+    private final ServerSocketChannel server;
+
+    private final Selector selector;
+
+    private final Thread thread;
+
+    private final Set<Connection> connections = new HashSet<>();
+
+    private final Map<String, Long> latencyNanos;
+
+    private final long defaultLatencyNanos;
+
+    private final Set<String> faultCommands;
+
+    private final double transientFailureRate;
+
+    private final double permanentFailureRate;
+
+    private final double dropRate;
+
+    private final Random random;
+
+    private final long maxSize;
+
+    private final String user;
+
+    private final String password;
+
+    private final Queue<Fault> scripted = new ConcurrentLinkedQueue<>();
+
+    private final List<ReceivedMessage> messages = new ArrayList<>();
+
+    private final Map<String, AtomicInteger> commandCounts = new ConcurrentHashMap<>();
+
+    private final AtomicInteger acceptedConnections = new AtomicInteger();
+
+    private volatile boolean running = true;
+
+    private FakeSmtpServer(
+            Map<String, Long> latencyNanos,
+            long defaultLatencyNanos,
+            Set<String> faultCommands,
+            double transientFailureRate,
+            double permanentFailureRate,
+            double dropRate,
+            Random random,
+            long maxSize,
+            String user,
+            String password
+    ) throws IOException {
+        this.latencyNanos = latencyNanos;
+        this.defaultLatencyNanos = defaultLatencyNanos;
+        this.faultCommands = faultCommands;
+        this.transientFailureRate = transientFailureRate;
+        this.permanentFailureRate = permanentFailureRate;
+        this.dropRate = dropRate;
+        this.random = random;
+        this.maxSize = maxSize;
+        this.user = user;
+        this.password = password;
+
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("localhost", 0));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        this.thread = new Thread(this::loop, "fake-smtp-" + getPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Session properties pointing at this server, with short timeouts and authentication turned on when
+     * the server requires it.
+     */
+    public Properties properties() {
+        final Properties props = new Properties();
+        props.put("mail.smtp.host", "localhost");
+        props.put("mail.smtp.port", String.valueOf(getPort()));
+        props.put("mail.smtp.connectiontimeout", "5000");
+        props.put("mail.smtp.timeout", "5000");
+        if (user != null) {
+            props.put("mail.smtp.auth", "true");
+        }
+        return props;
+    }
+
+    /**
+     * The next time {@code command} is received it gets {@code code} as response, ahead of any random fault.
+     */
+    public void failNext(String command, int code) {
+        scripted.add(new Fault(command.toUpperCase(Locale.ROOT), code));
+    }
+
+    /**
+     * The next time {@code command} is received the connection is closed without a response.
+     */
+    public void dropNext(String command) {
+        scripted.add(new Fault(command.toUpperCase(Locale.ROOT), 0));
+    }
+
+    public List<ReceivedMessage> getMessages() {
+        synchronized (messages) {
+            return List.copyOf(messages);
+        }
+    }
+
+    /**
+     * Waits until at least {@code count} messages were received.
+     *
+     * @return false when the timeout passed first
+     */
+    public boolean awaitMessages(int count, Duration timeout) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (messages) {
+            while (messages.size() < count) {
+                final long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(messages, left);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Connections accepted since the start.
+     */
+    public int getConnections() {
+        return acceptedConnections.get();
+    }
+
+    /**
+     * Times {@code command} was received since the start, whatever the response.
+     */
+    public int getCommandCount(String command) {
+        final AtomicInteger count = commandCounts.get(command.toUpperCase(Locale.ROOT));
+        return count == null ? 0 : count.get();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void loop() {
+        try {
+            while (running) {
+
+                final long now = System.nanoTime();
+                long wait = Long.MAX_VALUE;
+                for (Connection connection : connections) {
+                    final Response next = connection.responses.peek();
+                    if (next != null) {
+                        wait = Math.min(wait, next.due() - now);
+                    }
+                }
+
+                if (wait == Long.MAX_VALUE) {
+                    selector.select();
+                } else if (wait > 0) {
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+                } else {
+                    selector.selectNow();
+                }
+
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        ((Connection) key.attachment()).read();
+                    }
+                }
+
+                for (Connection connection : List.copyOf(connections)) {
+                    connection.flush();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            for (Connection connection : List.copyOf(connections)) {
+                connection.close();
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException ignored) {
+                //closing anyway
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+
+        final SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+
+        acceptedConnections.incrementAndGet();
+        channel.configureBlocking(false);
+
+        final Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connections.add(connection);
+
+        connection.respond("CONNECT", "220 localhost fake ESMTP ready");
+    }
+
+    private long latencyOf(String command) {
+        return latencyNanos.getOrDefault(command, defaultLatencyNanos);
+    }
+
+    /**
+     * @return the response code to inject, 0 to drop the connection, -1 for none
+     */
+    private int faultFor(String command) {
+
+        for (Iterator<Fault> iterator = scripted.iterator(); iterator.hasNext(); ) {
+            final Fault fault = iterator.next();
+            if (fault.command().equals(command) && scripted.remove(fault)) {
+                return fault.code();
+            }
+        }
+
+        if (!faultCommands.contains(command)) {
+            return -1;
+        }
+
+        final double roll = random.nextDouble();
+        if (roll < dropRate) {
+            return 0;
+        }
+        if (roll < dropRate + transientFailureRate) {
+            return 451;
+        }
+        if (roll < dropRate + transientFailureRate + permanentFailureRate) {
+            return 554;
+        }
+        return -1;
+    }
+
+    private enum Mode {
+        COMMAND, DATA, AUTH_PLAIN, AUTH_LOGIN_USER, AUTH_LOGIN_PASSWORD
+    }
+
+    private record Response(long due, byte[] bytes, boolean close) {
+
+    }
+
+    private record Fault(String command, int code) {
+
+    }
+
+    private final class Connection {
+
+        private final SocketChannel channel;
+
+        private SelectionKey key;
+
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(16 * 1024);
+
+        private byte[] pending = new byte[1024];
+
+        private int pendingLength;
+
+        private final Queue<Response> responses = new ArrayDeque<>();
+
+        private ByteBuffer writing;
+
+        //responses go out in order, each one after the previous one's latency
+        private long readyAt;
+
+        private Mode mode = Mode.COMMAND;
+
+        //a close is queued, the rest of the input is ignored
+        private boolean closing;
+
+        private boolean authenticated;
+
+        private String loginUser;
+
+        private String from;
+
+        private final List<String> recipients = new ArrayList<>();
+
+        private ByteArrayOutputStream data;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.readyAt = System.nanoTime();
+        }
+
+        private void read() {
+
+            final int read;
+            try {
+                readBuffer.clear();
+                read = channel.read(readBuffer);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+
+            if (read < 0) {
+                close();
+                return;
+            }
+
+            readBuffer.flip();
+            if (pendingLength + read > pending.length) {
+                final byte[] grown = new byte[Math.max(pending.length * 2, pendingLength + read)];
+                System.arraycopy(pending, 0, grown, 0, pendingLength);
+                pending = grown;
+            }
+            readBuffer.get(pending, pendingLength, read);
+            pendingLength += read;
+
+            int start = 0;
+            for (int i = 0; i < pendingLength && !closing; i++) {
+                if (pending[i] == '\n') {
+                    int end = i;
+                    if (end > start && pending[end - 1] == '\r') {
+                        end--;
+                    }
+                    line(start, end);
+                    start = i + 1;
+                }
+            }
+
+            System.arraycopy(pending, start, pending, 0, pendingLength - start);
+            pendingLength -= start;
+        }
+
+        private void line(int start, int end) {
+
+            if (mode == Mode.DATA) {
+                dataLine(start, end);
+                return;
+            }
+
+            final String line = new String(pending, start, end - start, StandardCharsets.ISO_8859_1);
+
+            switch (mode) {
+                case AUTH_PLAIN -> authPlain(line);
+                case AUTH_LOGIN_USER -> {
+                    loginUser = decode(line);
+                    mode = Mode.AUTH_LOGIN_PASSWORD;
+                    respond("AUTH", "334 UGFzc3dvcmQ6");
+                }
+                case AUTH_LOGIN_PASSWORD -> {
+                    mode = Mode.COMMAND;
+                    authResult(loginUser, decode(line));
+                }
+                default -> command(line);
+            }
+        }
+
+        private void command(String line) {
+
+            final int space = line.indexOf(' ');
+            final String verb = (space < 0 ? line : line.substring(0, space)).toUpperCase(Locale.ROOT);
+            final String argument = space < 0 ? "" : line.substring(space + 1).trim();
+
+            commandCounts.computeIfAbsent(verb, v -> new AtomicInteger()).incrementAndGet();
+
+            //the 354 is never failed, DATA faults apply to the message
+            if (!verb.equals("DATA") && inject(verb)) {
+                if (verb.equals("MAIL")) {
+                    reset();
+                }
+                return;
+            }
+
+            switch (verb) {
+                case "EHLO" -> {
+                    reset();
+                    final List<String> lines = new ArrayList<>();
+                    lines.add("localhost");
+                    lines.add("PIPELINING");
+                    lines.add("8BITMIME");
+                    lines.add(maxSize > 0 ? "SIZE " + maxSize : "SIZE");
+                    if (user != null) {
+                        lines.add("AUTH PLAIN LOGIN");
+                    }
+                    respond(verb, multiline(250, lines));
+                }
+                case "HELO" -> {
+                    reset();
+                    respond(verb, "250 localhost");
+                }
+                case "AUTH" -> auth(argument);
+                case "MAIL" -> mail(argument);
+                case "RCPT" -> rcpt(argument);
+                case "DATA" -> {
+                    if (from == null || recipients.isEmpty()) {
+                        respond(verb, "503 5.5.1 Need MAIL and RCPT first");
+                    } else {
+                        data = new ByteArrayOutputStream();
+                        mode = Mode.DATA;
+                        respond(verb, "354 End data with <CR><LF>.<CR><LF>");
+                    }
+                }
+                case "RSET" -> {
+                    reset();
+                    respond(verb, "250 2.0.0 OK");
+                }
+                case "NOOP" -> respond(verb, "250 2.0.0 OK");
+                case "QUIT" -> {
+                    respond(verb, "221 2.0.0 Bye");
+                    responses.add(new Response(readyAt, DROP, true));
+                    closing = true;
+                }
+                default -> respond(verb, "502 5.5.2 Command not recognized");
+            }
+        }
+
+        private void auth(String argument) {
+
+            if (user == null) {
+                respond("AUTH", "502 5.5.1 AUTH not supported");
+                return;
+            }
+
+            final String[] parts = argument.split(" ", 2);
+            final String mechanism = parts[0].toUpperCase(Locale.ROOT);
+
+            if (mechanism.equals("PLAIN")) {
+                if (parts.length > 1) {
+                    authPlain(parts[1]);
+                } else {
+                    mode = Mode.AUTH_PLAIN;
+                    respond("AUTH", "334 ");
+                }
+            } else if (mechanism.equals("LOGIN")) {
+                if (parts.length > 1) {
+                    loginUser = decode(parts[1]);
+                    mode = Mode.AUTH_LOGIN_PASSWORD;
+                    respond("AUTH", "334 UGFzc3dvcmQ6");
+                } else {
+                    mode = Mode.AUTH_LOGIN_USER;
+                    respond("AUTH", "334 VXNlcm5hbWU6");
+                }
+            } else {
+                respond("AUTH", "504 5.5.4 Unrecognized authentication type");
+            }
+        }
+
+        private void authPlain(String encoded) {
+            mode = Mode.COMMAND;
+            //authorization identity, user and password separated by NUL
+            final String[] fields = decode(encoded).split("\0", -1);
+            if (fields.length != 3) {
+                respond("AUTH", "501 5.5.2 Cannot decode response");
+                return;
+            }
+            authResult(fields[1], fields[2]);
+        }
+
+        private void authResult(String user, String password) {
+            authenticated = FakeSmtpServer.this.user.equals(user) && FakeSmtpServer.this.password.equals(password);
+            respond("AUTH", authenticated
+                    ? "235 2.7.0 Authentication successful"
+                    : "535 5.7.8 Authentication credentials invalid");
+        }
+
+        private void mail(String argument) {
+
+            if (user != null && !authenticated) {
+                respond("MAIL", "530 5.7.0 Authentication required");
+                return;
+            }
+
+            final String upper = argument.toUpperCase(Locale.ROOT);
+            if (!upper.startsWith("FROM:")) {
+                respond("MAIL", "501 5.5.4 Syntax: MAIL FROM:<address>");
+                return;
+            }
+
+            final int size = upper.indexOf(" SIZE=");
+            if (size > 0 && maxSize > 0) {
+                final String value = argument.substring(size + 6).split(" ", 2)[0];
+                if (Long.parseLong(value) > maxSize) {
+                    respond("MAIL", "552 5.3.4 Message size exceeds fixed limit");
+                    return;
+                }
+            }
+
+            reset();
+            from = path(argument.substring(5));
+            respond("MAIL", "250 2.1.0 OK");
+        }
+
+        private void rcpt(String argument) {
+
+            if (from == null) {
+                respond("RCPT", "503 5.5.1 Need MAIL first");
+                return;
+            }
+
+            if (!argument.toUpperCase(Locale.ROOT).startsWith("TO:")) {
+                respond("RCPT", "501 5.5.4 Syntax: RCPT TO:<address>");
+                return;
+            }
+
+            recipients.add(path(argument.substring(3)));
+            respond("RCPT", "250 2.1.5 OK");
+        }
+
+        private void dataLine(int start, int end) {
+
+            if (end - start == 1 && pending[start] == '.') {
+                endOfData();
+                return;
+            }
+
+            //dot stuffing
+            if (end > start && pending[start] == '.') {
+                start++;
+            }
+
+            data.write(pending, start, end - start);
+            data.write('\r');
+            data.write('\n');
+        }
+
+        private void endOfData() {
+
+            mode = Mode.COMMAND;
+            final byte[] content = data.toByteArray();
+            data = null;
+
+            if (inject("DATA")) {
+                reset();
+                return;
+            }
+
+            if (maxSize > 0 && content.length > maxSize) {
+                reset();
+                respond("DATA", "552 5.3.4 Message size exceeds fixed limit");
+                return;
+            }
+
+            final ReceivedMessage message = new ReceivedMessage(from, List.copyOf(recipients), content);
+            synchronized (messages) {
+                messages.add(message);
+                messages.notifyAll();
+            }
+
+            reset();
+            respond("DATA", "250 2.0.0 OK queued");
+        }
+
+        /**
+         * @return true when a fault was injected in place of the normal response
+         */
+        private boolean inject(String verb) {
+
+            final int code = faultFor(verb);
+            if (code < 0) {
+                return false;
+            }
+
+            if (code == 0) {
+                readyAt = Math.max(readyAt, System.nanoTime()) + latencyOf(verb);
+                responses.add(new Response(readyAt, DROP, true));
+                closing = true;
+            } else {
+                respond(verb, code + (code < 500 ? " 4.3.0" : " 5.3.0") + " Injected failure");
+            }
+            return true;
+        }
+
+        private void reset() {
+            from = null;
+            recipients.clear();
+        }
+
+        private void respond(String command, String response) {
+            readyAt = Math.max(readyAt, System.nanoTime()) + latencyOf(command);
+            responses.add(new Response(readyAt, (response + "\r\n").getBytes(StandardCharsets.ISO_8859_1), false));
+        }
+
+        private void flush() {
+
+            final long now = System.nanoTime();
+
+            while (channel.isOpen()) {
+
+                if (writing == null) {
+                    final Response next = responses.peek();
+                    if (next == null || next.due() > now) {
+                        break;
+                    }
+                    responses.poll();
+                    if (next.close()) {
+                        close();
+                        return;
+                    }
+                    writing = ByteBuffer.wrap(next.bytes());
+                }
+
+                try {
+                    channel.write(writing);
+                } catch (IOException e) {
+                    close();
+                    return;
+                }
+
+                if (writing.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                writing = null;
+            }
+
+            if (key.isValid()) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        private void close() {
+            connections.remove(this);
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                //already gone
+            }
+        }
+    }
+
+    private static String multiline(int code, List<String> lines) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < lines.size(); i++) {
+            if (i > 0) {
+                builder.append("\r\n");
+            }
+            builder.append(code).append(i == lines.size() - 1 ? ' ' : '-').append(lines.get(i));
+        }
+        return builder.toString();
+    }
+
+    private static String path(String argument) {
+        String path = argument.trim();
+        final int space = path.indexOf(' ');
+        if (space > 0) {
+            path = path.substring(0, space);
+        }
+        if (path.startsWith("<") && path.endsWith(">")) {
+            path = path.substring(1, path.length() - 1);
+        }
+        return path;
+    }
+
+    private static String decode(String encoded) {
+        try {
+            return new String(Base64.getDecoder().decode(encoded.trim()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    public static FakeSmtpServerBuilder builder() {
+        return new FakeSmtpServerBuilder();
+    }
+
+    public static class FakeSmtpServerBuilder {
+        private final Map<String, Long> latencyNanos = new HashMap<>();
+        private long defaultLatencyNanos;
+        private Set<String> faultCommands = Set.of("MAIL", "RCPT", "DATA");
+        private double transientFailureRate;
+        private double permanentFailureRate;
+        private double dropRate;
+        private long seed = System.nanoTime();
+        private long maxSize;
+        private String user;
+        private String password;
+
+        /**
+         * Delay before every response that has no latency of its own.
+         */
+        public FakeSmtpServerBuilder latency(Duration latency) {
+            this.defaultLatencyNanos = latency.toNanos();
+            return this;
+        }
+
+        public FakeSmtpServerBuilder latency(String command, Duration latency) {
+            this.latencyNanos.put(command.toUpperCase(Locale.ROOT), latency.toNanos());
+            return this;
+        }
+
+        /**
+         * Commands the random faults apply to, MAIL, RCPT and DATA by default.
+         */
+        public FakeSmtpServerBuilder faultCommands(String... commands) {
+            final Set<String> upper = new HashSet<>();
+            for (String command : commands) {
+                upper.add(command.toUpperCase(Locale.ROOT));
+            }
+            this.faultCommands = upper;
+            return this;
+        }
+
+        /**
+         * Share of fault commands answered with 451.
+         */
+        public FakeSmtpServerBuilder transientFailureRate(double transientFailureRate) {
+            this.transientFailureRate = transientFailureRate;
+            return this;
+        }
+
+        /**
+         * Share of fault commands answered with 554.
+         */
+        public FakeSmtpServerBuilder permanentFailureRate(double permanentFailureRate) {
+            this.permanentFailureRate = permanentFailureRate;
+            return this;
+        }
+
+        /**
+         * Share of fault commands where the connection is closed without a response.
+         */
+        public FakeSmtpServerBuilder dropRate(double dropRate) {
+            this.dropRate = dropRate;
+            return this;
+        }
+
+        /**
+         * Seed for the random faults, so a failing run can be repeated.
+         */
+        public FakeSmtpServerBuilder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Largest message accepted in bytes, advertised with SIZE. 0, the default, has no limit.
+         */
+        public FakeSmtpServerBuilder maxSize(long maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Requires AUTH with these credentials before MAIL.
+         */
+        public FakeSmtpServerBuilder credentials(String user, String password) {
+            this.user = user;
+            this.password = password;
+            return this;
+        }
+
+        /**
+         * Binds and starts the server.
+         */
+        public FakeSmtpServer start() throws IOException {
+
+            if (transientFailureRate + permanentFailureRate + dropRate > 1) {
+                throw new IllegalArgumentException("fault rates add up to more than 1");
+            }
+
+            return new FakeSmtpServer(
+                    Map.copyOf(latencyNanos),
+                    defaultLatencyNanos,
+                    faultCommands,
+                    transientFailureRate,
+                    permanentFailureRate,
+                    dropRate,
+                    new Random(seed),
+                    maxSize,
+                    user,
+                    password
+            );
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.dustwing.smtp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * A message accepted by {@link FakeSmtpServer}.
+ *
+ * @param from       the MAIL FROM address
+ * @param recipients the RCPT TO addresses, in order
+ * @param data       the message as sent after DATA, dot stuffing removed
+ */
+public record ReceivedMessage(String from, List<String> recipients, byte[] data) {
+
+    /**
+     * Headers and body as text, enough to look for a subject or a header.
+     */
+    public String content() {
+        return new String(data, StandardCharsets.ISO_8859_1);
+    }
+}